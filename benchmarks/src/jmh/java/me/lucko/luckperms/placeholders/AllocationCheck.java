@@ -0,0 +1,109 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs {@link RequestAllocationBenchmark} with the GC profiler, and fails if a
+ * cached placeholder request allocates anything beyond what the LuckPerms API
+ * stub itself allocates.
+ *
+ * <p>Run with {@code ./gradlew :benchmarks:jmhAllocationCheck}. It also runs as
+ * part of {@code ./gradlew check}.</p>
+ */
+public final class AllocationCheck {
+    private static final String ALLOCATION_RATE = "gc.alloc.rate.norm";
+
+    /**
+     * The tolerance, in bytes per operation, for measurement noise.
+     */
+    private static final double TOLERANCE = 1.0;
+
+    private AllocationCheck() {
+
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(RequestAllocationBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .warmupIterations(3)
+                .measurementIterations(3)
+                .build();
+
+        Collection<RunResult> results = new Runner(options).run();
+
+        // baseline allocation rate for each placeholder param
+        Map<String, Double> baselines = new HashMap<>();
+        for (RunResult result : results) {
+            if (result.getParams().getBenchmark().endsWith(".baseline")) {
+                baselines.put(result.getParams().getParam("placeholder"), allocationRate(result));
+            }
+        }
+
+        List<String> failures = new ArrayList<>();
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            if (benchmark.endsWith(".baseline")) {
+                continue;
+            }
+
+            String placeholder = result.getParams().getParam("placeholder");
+            double allocated = allocationRate(result) - baselines.get(placeholder);
+            System.out.printf("%s [%s]: %.2f bytes/op above baseline%n", benchmark, placeholder, allocated);
+            if (allocated > TOLERANCE) {
+                failures.add(String.format("%s [%s] allocated %.2f bytes/op", benchmark, placeholder, allocated));
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError("Cached requests allocated:\n  " + String.join("\n  ", failures));
+        }
+    }
+
+    private static double allocationRate(RunResult result) {
+        for (Map.Entry<String, Result> entry : result.getSecondaryResults().entrySet()) {
+            if (entry.getKey().endsWith(ALLOCATION_RATE)) {
+                return entry.getValue().getScore();
+            }
+        }
+        throw new IllegalStateException("No allocation rate recorded for " + result.getParams().getBenchmark());
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.event.context.ContextUpdateEvent;
+import net.luckperms.api.event.group.GroupDataRecalculateEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hammers {@link LPPlaceholderProvider} with concurrent requests while other
+ * threads change user data and post invalidation events, and fails if any
+ * request observes a value which is older than one already published.
+ *
+ * <p>Writer threads change the prefix of their own (disjoint) set of users,
+ * and record the version of the prefix once the resulting recalculation event
+ * has been handled. Reader threads check that every prefix they resolve is at
+ * least as new as the version recorded before the request started, and never
+ * older than one they have already seen - i.e. once an invalidation has
+ * completed, no request returns the value it replaced.</p>
+ *
+ * <p>Each user is also subscribed to their prefix. The versions delivered to a
+ * subscription must never go backwards, and once the writers stop, every
+ * subscription must settle on the last version published for its user.</p>
+ *
+ * <p>{@link StubLuckPerms.StubPlatform} can look up players, so the prewarmer
+ * recomputes requested placeholders in the background while this runs. The set
+ * of placeholders it computes is learned from requests, so it only starts
+ * working once the run has been going for a few seconds.</p>
+ *
+ * <p>Run with {@code ./gradlew :benchmarks:jmhStress}, optionally passing the
+ * duration in seconds and the number of reader threads as arguments. It also
+ * runs as part of {@code ./gradlew check}.</p>
+ */
+public final class ConcurrencyStress {
+    private static final int USERS = 64;
+    private static final int WRITERS = 2;
+
+    /**
+     * How long to wait for subscriptions to settle once the writers have stopped.
+     */
+    private static final long SETTLE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private ConcurrencyStress() {
+
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int readers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        StubLuckPerms luckPerms = new StubLuckPerms(USERS, 20, 100, 4);
+        LPPlaceholderProvider provider = new LPPlaceholderProvider(new StubLuckPerms.StubPlatform(luckPerms), luckPerms.getApi());
+        List<StubLuckPerms.StubPlayer> players = luckPerms.getPlayers();
+        CompiledTemplate template = provider.compileTemplate("%luckperms_prefix%%luckperms_primary_group_name% %luckperms_groups%");
+
+        // the latest published prefix version for each user, -1 for the original prefix
+        AtomicLongArray published = new AtomicLongArray(USERS);
+        for (int i = 0; i < USERS; i++) {
+            published.set(i, -1);
+        }
+
+        Queue<String> failures = new ConcurrentLinkedQueue<>();
+        LongAdder requests = new LongAdder();
+        LongAdder invalidations = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        // the latest prefix version delivered to each user's subscription
+        AtomicLongArray delivered = new AtomicLongArray(USERS);
+        LongAdder notifications = new LongAdder();
+        List<PlaceholderSubscription> subscriptions = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            int user = i;
+            StubLuckPerms.StubPlayer player = players.get(i);
+            PlaceholderSubscription subscription = provider.subscribe(player, player.getUniqueId(), "prefix", (sub, value) -> {
+                long version = version(value);
+                long previous = delivered.getAndAccumulate(user, version, Math::max);
+                if (version < previous) {
+                    failures.add("user " + user + ": subscription delivered prefix v" + version + " after v" + previous);
+                }
+                notifications.increment();
+            });
+            delivered.accumulateAndGet(i, version(subscription.getValue()), Math::max);
+            subscriptions.add(subscription);
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                long[] seen = new long[USERS];
+                Arrays.fill(seen, -1);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                while (System.nanoTime() < deadline && failures.isEmpty()) {
+                    int i = random.nextInt(USERS);
+                    StubLuckPerms.StubPlayer player = players.get(i);
+                    UUID uniqueId = player.getUniqueId();
+
+                    long before = published.get(i);
+                    long version = version(provider.onPlaceholderRequest(player, uniqueId, "prefix"));
+                    if (version < before) {
+                        failures.add("user " + i + ": read prefix v" + version + " after v" + before + " was published");
+                    } else if (version < seen[i]) {
+                        failures.add("user " + i + ": read prefix v" + version + " after reading v" + seen[i]);
+                    }
+                    seen[i] = Math.max(seen[i], version);
+
+                    // exercise the other request paths too
+                    StubLuckPerms.StubPlayer other = players.get(random.nextInt(USERS));
+                    provider.onRelationalPlaceholderRequest(player, uniqueId, other, other.getUniqueId(), "outranks");
+                    template.render(player, uniqueId);
+                    requests.add(3);
+                }
+            }, "reader-" + r));
+        }
+
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                long version = 0;
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                while (System.nanoTime() < deadline && failures.isEmpty()) {
+                    // each writer owns the users congruent to its index
+                    int i = writer + WRITERS * random.nextInt(USERS / WRITERS);
+                    luckPerms.setPrefix(players.get(i).getUniqueId(), "v" + version + " ");
+                    published.set(i, version);
+                    version++;
+
+                    // occasionally invalidate everything
+                    if (version % 64 == 0) {
+                        luckPerms.post(GroupDataRecalculateEvent.class, new Stub<>(GroupDataRecalculateEvent.class, "GroupDataRecalculateEvent").build());
+                    } else if (version % 16 == 0) {
+                        StubLuckPerms.StubPlayer player = players.get(random.nextInt(USERS));
+                        luckPerms.post(ContextUpdateEvent.class, new Stub<>(ContextUpdateEvent.class, "ContextUpdateEvent")
+                                .returning("getSubject", player)
+                                .build()
+                        );
+                    }
+                    invalidations.increment();
+                }
+            }, "writer-" + w));
+        }
+
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((t, e) -> failures.add(t.getName() + " threw " + e));
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // every subscription should catch up with the last published version
+        long settleDeadline = System.nanoTime() + SETTLE_NANOS;
+        for (int i = 0; i < USERS; i++) {
+            while (version(subscriptions.get(i).getValue()) != published.get(i) && System.nanoTime() < settleDeadline) {
+                Thread.sleep(10);
+            }
+            long version = version(subscriptions.get(i).getValue());
+            if (version != published.get(i)) {
+                failures.add("user " + i + ": subscription settled on prefix v" + version + ", but v" + published.get(i) + " was published");
+            }
+        }
+        for (PlaceholderSubscription subscription : subscriptions) {
+            subscription.close();
+        }
+        provider.close();
+
+        System.out.printf("%d readers, %d writers, %ds: %d requests, %d invalidations, %d notifications%n",
+                readers, WRITERS, seconds, requests.sum(), invalidations.sum(), notifications.sum());
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError("Concurrency violations:\n  " + String.join("\n  ", failures));
+        }
+    }
+
+    /**
+     * Gets the version of a prefix set by a writer.
+     *
+     * @param prefix the prefix
+     * @return the version, or -1 for the original prefix
+     */
+    private static long version(String prefix) {
+        if (prefix.startsWith("v")) {
+            return Long.parseLong(prefix.substring(1, prefix.indexOf(' ')));
+        }
+        return -1;
+    }
+}
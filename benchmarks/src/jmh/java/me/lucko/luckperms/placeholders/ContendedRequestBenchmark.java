@@ -0,0 +1,100 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures placeholder request throughput from many threads at once, as with
+ * async chat and scoreboard plugins, while another thread keeps changing user
+ * data.
+ *
+ * <p>See {@link ConcurrencyStress} for the equivalent correctness check.</p>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContendedRequestBenchmark {
+
+    private StubLuckPerms luckPerms;
+    private LPPlaceholderProvider provider;
+    private List<StubLuckPerms.StubPlayer> players;
+    private final AtomicLong version = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.luckPerms = new StubLuckPerms(200, 20, 100, 4);
+        this.provider = new LPPlaceholderProvider(new StubLuckPerms.StubPlatform(this.luckPerms), this.luckPerms.getApi());
+        this.players = this.luckPerms.getPlayers();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.provider.close();
+    }
+
+    private StubLuckPerms.StubPlayer randomPlayer() {
+        return this.players.get(ThreadLocalRandom.current().nextInt(this.players.size()));
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(7)
+    public String request() {
+        StubLuckPerms.StubPlayer player = randomPlayer();
+        return this.provider.onPlaceholderRequest(player, player.getUniqueId(), "prefix");
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void invalidate() {
+        this.luckPerms.setPrefix(randomPlayer().getUniqueId(), "v" + this.version.incrementAndGet() + " ");
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(8)
+    public String requestOnly() {
+        StubLuckPerms.StubPlayer player = randomPlayer();
+        return this.provider.onPlaceholderRequest(player, player.getUniqueId(), "prefix");
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of resolving each placeholder against an in-memory
+ * LuckPerms instance ({@link StubLuckPerms}).
+ *
+ * <p>Placeholders prefixed with {@code rel_} are relational, and are requested with
+ * each player viewing the next.</p>
+ *
+ * <p>Run with {@code ./gradlew :benchmarks:jmh}. The {@code gc} profiler is enabled
+ * by default, so allocation rates are reported alongside timings.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlaceholderBenchmark {
+
+    @Param({
+            "prefix",
+            "suffix",
+            "meta_all_color",
+            "meta_rank",
+            "prefix_element_highest",
+            "prefix_stack_highest;first-only; ;|;",
+            "suffix_element_highest",
+            "suffix_stack_highest",
+            "context",
+            "context_world",
+            "groups",
+            "inherited_groups",
+            "primary_group_name",
+            "has_permission_perm.node.50",
+            "inherits_permission_perm.node.50",
+            "check_permission_perm.node.50",
+            "in_group_group2",
+            "inherits_group_group2",
+            "on_track_track0",
+            "has_groups_on_track_track0",
+            "highest_group_by_weight",
+            "lowest_group_by_weight",
+            "highest_inherited_group_by_weight",
+            "lowest_inherited_group_by_weight",
+            "highest_group_weight",
+            "current_group_on_track_track0",
+            "next_group_on_track_track0",
+            "previous_group_on_track_track0",
+            "first_group_on_tracks_track0,track1",
+            "last_group_on_tracks_track0,track1",
+            "expiry_time_perm.node.50",
+            "inherited_expiry_time_perm.node.50",
+            "group_expiry_time_group1",
+            "inherited_group_expiry_time_group1",
+            "online_count",
+            "online_in_group_group2",
+            "online_on_track_track0",
+            "online_track_positions_track0",
+            "rel_outranks",
+            "rel_outranked_by",
+            "rel_same_rank",
+            "rel_weight_difference",
+            "rel_same_primary_group",
+            "rel_shares_group",
+            "rel_group_on_track_track0",
+            "rel_outranks_on_track_track0"
+    })
+    public String placeholder;
+
+    @Param({"100"})
+    public int users;
+
+    @Param({"200"})
+    public int nodes;
+
+    private StubLuckPerms luckPerms;
+    private LPPlaceholderProvider provider;
+    private CompiledPlaceholder compiled;
+    private String relational;
+    private List<StubLuckPerms.StubPlayer> players;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.luckPerms = new StubLuckPerms(this.users, 20, this.nodes, 4);
+        this.provider = new LPPlaceholderProvider(new StubLuckPerms.StubPlatform(this.luckPerms), this.luckPerms.getApi());
+        this.players = this.luckPerms.getPlayers();
+
+        if (this.placeholder.startsWith("rel_")) {
+            this.relational = this.placeholder.substring("rel_".length());
+            StubLuckPerms.StubPlayer player = this.players.get(0);
+            if (this.provider.onRelationalPlaceholderRequest(player, player.getUniqueId(), player, player.getUniqueId(), this.relational) == null) {
+                throw new IllegalStateException("Unknown placeholder: " + this.placeholder);
+            }
+            return;
+        }
+
+        this.compiled = this.provider.compile(this.placeholder);
+        if (this.compiled == null) {
+            throw new IllegalStateException("Unknown placeholder: " + this.placeholder);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.provider.close();
+    }
+
+    private StubLuckPerms.StubPlayer nextPlayer() {
+        int next = this.next + 1;
+        if (next == this.players.size()) {
+            next = 0;
+        }
+        this.next = next;
+        return this.players.get(next);
+    }
+
+    private String request(StubLuckPerms.StubPlayer player) {
+        if (this.relational != null) {
+            StubLuckPerms.StubPlayer target = this.players.get(this.next + 1 == this.players.size() ? 0 : this.next + 1);
+            return this.provider.onRelationalPlaceholderRequest(player, player.getUniqueId(), target, target.getUniqueId(), this.relational);
+        }
+        return this.provider.onPlaceholderRequest(player, player.getUniqueId(), this.placeholder);
+    }
+
+    /**
+     * Requests the placeholder by name, as a placeholder plugin would.
+     * After the first pass over the players, results are served from cache.
+     */
+    @Benchmark
+    public String request() {
+        return request(nextPlayer());
+    }
+
+    /**
+     * Evaluates a pre-compiled handle for the placeholder. Relational placeholders
+     * can't be compiled, so are requested by name.
+     */
+    @Benchmark
+    public String compiled() {
+        StubLuckPerms.StubPlayer player = nextPlayer();
+        if (this.compiled == null) {
+            return request(player);
+        }
+        return this.compiled.evaluate(player, player.getUniqueId());
+    }
+
+    /**
+     * Requests the placeholder immediately after invalidating the players data,
+     * measuring the cost of computing it from scratch.
+     */
+    @Benchmark
+    public String uncached() {
+        StubLuckPerms.StubPlayer player = nextPlayer();
+        this.luckPerms.recalculateUser(player.getUniqueId());
+        return request(player);
+    }
+}
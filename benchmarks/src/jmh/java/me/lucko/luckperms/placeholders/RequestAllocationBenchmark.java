@@ -0,0 +1,96 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures cached placeholder requests, with the placeholder given as a string
+ * and as a region of a larger piece of text.
+ *
+ * <p>{@link #baseline()} makes the same LuckPerms API calls as a request, so its
+ * allocation rate is the cost of the API stub alone. {@link AllocationCheck} runs
+ * this benchmark, and fails if a request allocates more than the baseline.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestAllocationBenchmark {
+
+    @Param({"prefix", "meta_rank", "has_permission_perm.node.50", "context_world"})
+    public String placeholder;
+
+    private StubLuckPerms luckPerms;
+    private LPPlaceholderProvider provider;
+    private StubLuckPerms.StubPlayer player;
+    private UUID uniqueId;
+    private String string;
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.luckPerms = new StubLuckPerms(1, 20, 200, 4);
+        this.provider = new LPPlaceholderProvider(new StubLuckPerms.StubPlatform(this.luckPerms), this.luckPerms.getApi());
+        this.player = this.luckPerms.getPlayers().get(0);
+        this.uniqueId = this.player.getUniqueId();
+
+        // use new strings, with the case changed, so nothing can rely on identity or cached hash codes
+        this.string = new String(this.placeholder.toUpperCase().toCharArray());
+        this.text = "%luckperms_" + this.string + "%";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.provider.close();
+    }
+
+    @Benchmark
+    public Object baseline() {
+        return this.luckPerms.getApi().getUserManager().getUser(this.uniqueId).getCachedData();
+    }
+
+    @Benchmark
+    public String string() {
+        return this.provider.onPlaceholderRequest(this.player, this.uniqueId, this.string);
+    }
+
+    @Benchmark
+    public String region() {
+        return this.provider.onPlaceholderRequest(this.player, this.uniqueId, this.text, "%luckperms_".length(), this.text.length() - 1);
+    }
+}
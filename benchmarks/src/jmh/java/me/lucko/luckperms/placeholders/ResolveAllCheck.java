@@ -0,0 +1,88 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Checks that {@link LPPlaceholderProvider#resolveAll(Object, UUID, java.util.Collection)}
+ * agrees with single requests, and maps unknown placeholders to null whether or
+ * not the user is loaded.
+ *
+ * <p>Run with {@code ./gradlew :benchmarks:jmhResolveAllCheck}. It also runs as
+ * part of {@code ./gradlew check}.</p>
+ */
+public final class ResolveAllCheck {
+    private static final List<String> PLACEHOLDERS = Arrays.asList("prefix", "not_a_placeholder", "meta_rank", "PRIMARY_GROUP_NAME");
+
+    private ResolveAllCheck() {
+
+    }
+
+    public static void main(String[] args) {
+        StubLuckPerms luckPerms = new StubLuckPerms(4, 5, 20, 2);
+        LPPlaceholderProvider provider = new LPPlaceholderProvider(new StubLuckPerms.StubPlatform(luckPerms), luckPerms.getApi());
+        List<String> failures = new ArrayList<>();
+
+        try {
+            // a loaded user - every result matches the single request
+            StubLuckPerms.StubPlayer player = luckPerms.getPlayers().get(0);
+            Map<String, String> results = provider.resolveAll(player, player.getUniqueId(), PLACEHOLDERS);
+            for (String placeholder : PLACEHOLDERS) {
+                String expected = provider.onPlaceholderRequest(player, player.getUniqueId(), placeholder);
+                check(failures, "loaded user", placeholder, expected, results);
+            }
+
+            // a user who isn't loaded - known placeholders are empty, unknown ones still null
+            UUID unknownUser = UUID.randomUUID();
+            results = provider.resolveAll(null, unknownUser, PLACEHOLDERS);
+            check(failures, "unloaded user", "prefix", "", results);
+            check(failures, "unloaded user", "not_a_placeholder", null, results);
+            check(failures, "unloaded user", "meta_rank", "", results);
+            check(failures, "unloaded user", "PRIMARY_GROUP_NAME", "", results);
+        } finally {
+            provider.close();
+        }
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError("resolveAll failures:\n  " + String.join("\n  ", failures));
+        }
+        System.out.println("resolveAll: ok");
+    }
+
+    private static void check(List<String> failures, String description, String placeholder, String expected, Map<String, String> results) {
+        if (!results.containsKey(placeholder)) {
+            failures.add(description + ": no result for " + placeholder);
+        } else if (!Objects.equals(results.get(placeholder), expected)) {
+            failures.add(description + ": " + placeholder + " resolved to " + results.get(placeholder) + ", expected " + expected);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Builds in-memory implementations of API interfaces using dynamic proxies.
+ *
+ * <p>Only the methods used by the placeholders need to be implemented. Calling
+ * any other method throws an {@link UnsupportedOperationException}.</p>
+ *
+ * @param <T> the interface type
+ */
+final class Stub<T> {
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final Class<T> type;
+    private final String label;
+    private final Map<String, Function<Object[], Object>> methods = new HashMap<>();
+
+    Stub(Class<T> type, String label) {
+        this.type = type;
+        this.label = label;
+    }
+
+    /**
+     * Implements all overloads of a method.
+     *
+     * @param method the method name
+     * @param implementation the implementation
+     * @return this stub
+     */
+    public Stub<T> on(String method, Function<Object[], Object> implementation) {
+        this.methods.put(method, implementation);
+        return this;
+    }
+
+    /**
+     * Implements the overload of a method with the given number of parameters.
+     *
+     * @param method the method name
+     * @param parameterCount the number of parameters
+     * @param implementation the implementation
+     * @return this stub
+     */
+    public Stub<T> on(String method, int parameterCount, Function<Object[], Object> implementation) {
+        this.methods.put(method + "/" + parameterCount, implementation);
+        return this;
+    }
+
+    /**
+     * Implements a method which always returns the same value.
+     *
+     * @param method the method name
+     * @param value the value
+     * @return this stub
+     */
+    public Stub<T> returning(String method, Object value) {
+        return on(method, args -> value);
+    }
+
+    public T build() {
+        Map<String, Function<Object[], Object>> methods = Map.copyOf(this.methods);
+        String label = this.label;
+
+        InvocationHandler handler = new InvocationHandler() {
+            // resolved per method, so that invocations don't allocate
+            private final Map<Method, Function<Object[], Object>> resolved = new ConcurrentHashMap<>();
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                Function<Object[], Object> implementation = this.resolved.get(method);
+                if (implementation == null) {
+                    implementation = this.resolved.computeIfAbsent(method, m -> resolve(proxy, m));
+                }
+                return implementation.apply(args == null ? NO_ARGS : args);
+            }
+
+            private Function<Object[], Object> resolve(Object proxy, Method method) {
+                int parameterCount = method.getParameterCount();
+                switch (method.getName()) {
+                    case "equals":
+                        if (parameterCount == 1) {
+                            return args -> proxy == args[0];
+                        }
+                        break;
+                    case "hashCode":
+                        if (parameterCount == 0) {
+                            Integer hashCode = System.identityHashCode(proxy);
+                            return args -> hashCode;
+                        }
+                        break;
+                    case "toString":
+                        if (parameterCount == 0) {
+                            return args -> label;
+                        }
+                        break;
+                }
+
+                Function<Object[], Object> implementation = methods.get(method.getName() + "/" + parameterCount);
+                if (implementation == null) {
+                    implementation = methods.get(method.getName());
+                }
+                if (implementation == null) {
+                    return args -> {
+                        throw new UnsupportedOperationException(label + " does not implement " + method);
+                    };
+                }
+                return implementation;
+            }
+        };
+
+        return this.type.cast(Proxy.newProxyInstance(this.type.getClassLoader(), new Class<?>[]{this.type}, handler));
+    }
+}
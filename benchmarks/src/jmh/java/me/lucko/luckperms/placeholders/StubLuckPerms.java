@@ -0,0 +1,473 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.LuckPerms;
+import net.luckperms.api.cacheddata.CachedDataManager;
+import net.luckperms.api.cacheddata.CachedMetaData;
+import net.luckperms.api.cacheddata.CachedPermissionData;
+import net.luckperms.api.context.Context;
+import net.luckperms.api.context.ContextManager;
+import net.luckperms.api.context.ImmutableContextSet;
+import net.luckperms.api.event.EventBus;
+import net.luckperms.api.event.EventSubscription;
+import net.luckperms.api.event.LuckPermsEvent;
+import net.luckperms.api.event.user.UserDataRecalculateEvent;
+import net.luckperms.api.metastacking.MetaStackDefinition;
+import net.luckperms.api.metastacking.MetaStackElement;
+import net.luckperms.api.metastacking.MetaStackFactory;
+import net.luckperms.api.model.group.Group;
+import net.luckperms.api.model.group.GroupManager;
+import net.luckperms.api.model.user.User;
+import net.luckperms.api.model.user.UserManager;
+import net.luckperms.api.node.Node;
+import net.luckperms.api.node.NodeType;
+import net.luckperms.api.node.types.InheritanceNode;
+import net.luckperms.api.node.types.PermissionNode;
+import net.luckperms.api.query.QueryOptions;
+import net.luckperms.api.track.Track;
+import net.luckperms.api.track.TrackManager;
+import net.luckperms.api.util.Tristate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * An in-memory implementation of the parts of the {@link LuckPerms} API used by
+ * {@link LPPlaceholderProvider}, populated with generated users, groups, nodes
+ * and tracks.
+ *
+ * <ul>
+ *     <li>Groups are named {@code group0..groupN}, with weight {@code 10 * index}.</li>
+ *     <li>Tracks are named {@code track0..trackN}, and each contains every group
+ *     whose index is congruent to the track index.</li>
+ *     <li>Each user inherits three consecutive groups (the first of them temporarily),
+ *     and has permission nodes {@code perm.node.0..perm.node.N}, every tenth of
+ *     which is temporary.</li>
+ *     <li>Prefixes can be changed with {@link #setPrefix(UUID, String)}, to simulate
+ *     data changes.</li>
+ *     <li>Every user is online, and {@link StubPlatform} can look up their player
+ *     by unique id, so placeholders are also computed in the background.</li>
+ * </ul>
+ */
+final class StubLuckPerms {
+    private final Map<String, Group> groups = new LinkedHashMap<>();
+    private final Map<String, Track> tracks = new LinkedHashMap<>();
+    private final Map<UUID, User> users = new LinkedHashMap<>();
+    private final Map<UUID, StubPlayer> players = new LinkedHashMap<>();
+    private final Map<UUID, String> prefixes = new ConcurrentHashMap<>();
+    private final Map<Class<?>, List<Consumer<Object>>> handlers = new ConcurrentHashMap<>();
+
+    private final ImmutableContextSet emptyContext = contextSet(Map.of());
+    private final ImmutableContextSet playerContext = contextSet(Map.of("world", "world", "server", "global"));
+    private final Map<Object, QueryOptions> queryOptions = new ConcurrentHashMap<>();
+    private final QueryOptions staticQueryOptions;
+
+    private final LuckPerms api;
+
+    StubLuckPerms(int userCount, int groupCount, int nodeCount, int trackCount) {
+        if (groupCount < 3 || trackCount < 1) {
+            throw new IllegalArgumentException("need at least 3 groups and 1 track");
+        }
+
+        this.staticQueryOptions = queryOptions(this.emptyContext);
+
+        for (int i = 0; i < groupCount; i++) {
+            String name = "group" + i;
+            this.groups.put(name, new Stub<>(Group.class, "Group(" + name + ")")
+                    .returning("getName", name)
+                    .returning("getFriendlyName", "Group " + i)
+                    .returning("getDisplayName", "Group " + i)
+                    .returning("getWeight", OptionalInt.of(i * 10))
+                    .build()
+            );
+        }
+
+        for (int i = 0; i < trackCount; i++) {
+            String name = "track" + i;
+            List<String> trackGroups = new ArrayList<>();
+            for (int g = i; g < groupCount; g += trackCount) {
+                trackGroups.add("group" + g);
+            }
+            this.tracks.put(name, track(name, Collections.unmodifiableList(trackGroups)));
+        }
+
+        for (int i = 0; i < userCount; i++) {
+            UUID uniqueId = new UUID(0, i);
+            this.users.put(uniqueId, user(uniqueId, "user" + i, i, groupCount, nodeCount));
+            this.players.put(uniqueId, new StubPlayer(uniqueId));
+        }
+
+        this.api = new Stub<>(LuckPerms.class, "LuckPerms")
+                .returning("getUserManager", userManager())
+                .returning("getGroupManager", groupManager())
+                .returning("getTrackManager", trackManager())
+                .returning("getContextManager", contextManager())
+                .returning("getMetaStackFactory", metaStackFactory())
+                .returning("getEventBus", eventBus())
+                .build();
+    }
+
+    public LuckPerms getApi() {
+        return this.api;
+    }
+
+    public List<StubPlayer> getPlayers() {
+        return List.copyOf(this.players.values());
+    }
+
+    public User getUser(UUID uniqueId) {
+        return this.users.get(uniqueId);
+    }
+
+    /**
+     * Posts an event to the handlers subscribed to the given event class.
+     *
+     * @param eventClass the event class
+     * @param event the event
+     * @param <T> the event type
+     */
+    public <T extends LuckPermsEvent> void post(Class<T> eventClass, T event) {
+        for (Consumer<Object> handler : this.handlers.getOrDefault(eventClass, List.of())) {
+            handler.accept(event);
+        }
+    }
+
+    /**
+     * Posts a {@link UserDataRecalculateEvent} for the given user.
+     *
+     * @param uniqueId the users unique id
+     */
+    public void recalculateUser(UUID uniqueId) {
+        User user = this.users.get(uniqueId);
+        post(UserDataRecalculateEvent.class, new Stub<>(UserDataRecalculateEvent.class, "UserDataRecalculateEvent")
+                .returning("getUser", user)
+                .returning("getData", user.getCachedData())
+                .build()
+        );
+    }
+
+    /**
+     * Changes the prefix of a user, then posts a {@link UserDataRecalculateEvent}
+     * for them, as LuckPerms would.
+     *
+     * @param uniqueId the users unique id
+     * @param prefix the new prefix
+     */
+    public void setPrefix(UUID uniqueId, String prefix) {
+        this.prefixes.put(uniqueId, prefix);
+        recalculateUser(uniqueId);
+    }
+
+    private User user(UUID uniqueId, String username, int index, int groupCount, int nodeCount) {
+        Instant expiry = Instant.now().plus(30, ChronoUnit.DAYS);
+
+        List<InheritanceNode> inheritanceNodes = new ArrayList<>();
+        for (int g = 0; g < 3; g++) {
+            String group = "group" + ((index + g) % groupCount);
+            inheritanceNodes.add(inheritanceNode(group, g == 0 ? expiry : null));
+        }
+
+        List<Node> nodes = new ArrayList<>(inheritanceNodes);
+        for (int n = 0; n < nodeCount; n++) {
+            nodes.add(permissionNode("perm.node." + n, n % 10 == 0 ? expiry : null));
+        }
+
+        List<Group> inheritedGroups = inheritanceNodes.stream()
+                .map(n -> this.groups.get(n.getGroupName()))
+                .collect(Collectors.toUnmodifiableList());
+        Group primaryGroup = inheritedGroups.stream()
+                .max((a, b) -> Integer.compare(a.getWeight().orElse(0), b.getWeight().orElse(0)))
+                .orElseThrow();
+
+        this.prefixes.put(uniqueId, "&7[" + primaryGroup.getFriendlyName() + "] ");
+
+        Map<String, List<String>> meta = Map.of(
+                "rank", List.of(primaryGroup.getFriendlyName()),
+                "color", List.of("&a", "&b")
+        );
+        CachedMetaData metaData = new Stub<>(CachedMetaData.class, "CachedMetaData(" + username + ")")
+                .on("getPrefix", args -> this.prefixes.get(uniqueId))
+                .returning("getSuffix", null)
+                .returning("getMeta", meta)
+                .on("getMetaValue", args -> {
+                    List<String> values = meta.get((String) args[0]);
+                    return values == null ? null : values.get(0);
+                })
+                .returning("getPrimaryGroup", primaryGroup.getName())
+                .build();
+
+        Set<String> permissions = nodes.stream().map(Node::getKey).collect(Collectors.toSet());
+        CachedPermissionData permissionData = new Stub<>(CachedPermissionData.class, "CachedPermissionData(" + username + ")")
+                .on("checkPermission", args -> permissions.contains((String) args[0]) ? Tristate.TRUE : Tristate.UNDEFINED)
+                .build();
+
+        CachedDataManager cachedData = new Stub<>(CachedDataManager.class, "CachedDataManager(" + username + ")")
+                .returning("getMetaData", metaData)
+                .returning("getPermissionData", permissionData)
+                .build();
+
+        Collection<Node> unmodifiableNodes = Collections.unmodifiableList(nodes);
+        return new Stub<>(User.class, "User(" + username + ")")
+                .returning("getUniqueId", uniqueId)
+                .returning("getUsername", username)
+                .returning("getFriendlyName", username)
+                .returning("getPrimaryGroup", primaryGroup.getName())
+                .returning("getCachedData", cachedData)
+                .on("getNodes", 0, args -> unmodifiableNodes)
+                .on("getNodes", 1, args -> filter(unmodifiableNodes, (NodeType<?>) args[0]))
+                .on("resolveInheritedNodes", 1, args -> unmodifiableNodes)
+                .on("resolveInheritedNodes", 2, args -> filter(unmodifiableNodes, (NodeType<?>) args[0]))
+                .returning("getInheritedGroups", inheritedGroups)
+                .build();
+    }
+
+    private static Collection<Node> filter(Collection<Node> nodes, NodeType<?> type) {
+        return nodes.stream().filter(type::matches).collect(Collectors.toUnmodifiableList());
+    }
+
+    private InheritanceNode inheritanceNode(String group, Instant expiry) {
+        return node(new Stub<>(InheritanceNode.class, "InheritanceNode(" + group + ")")
+                .returning("getGroupName", group), "group." + group, expiry);
+    }
+
+    private PermissionNode permissionNode(String permission, Instant expiry) {
+        return node(new Stub<>(PermissionNode.class, "PermissionNode(" + permission + ")")
+                .returning("getPermission", permission), permission, expiry);
+    }
+
+    private <T extends Node> T node(Stub<T> stub, String key, Instant expiry) {
+        return stub.returning("getKey", key)
+                .returning("getValue", true)
+                .returning("getContexts", this.emptyContext)
+                .returning("hasExpiry", expiry != null)
+                .returning("getExpiry", expiry)
+                .on("getExpiryDuration", args -> expiry == null ? null : Duration.between(Instant.now(), expiry))
+                .on("hasExpired", args -> expiry != null && expiry.isBefore(Instant.now()))
+                .build();
+    }
+
+    private Track track(String name, List<String> groups) {
+        return new Stub<>(Track.class, "Track(" + name + ")")
+                .returning("getName", name)
+                .returning("getGroups", groups)
+                .on("containsGroup", args -> groups.contains(groupName(args[0])))
+                .on("getNext", args -> {
+                    int index = groups.indexOf(groupName(args[0]));
+                    return index == -1 || index == groups.size() - 1 ? null : groups.get(index + 1);
+                })
+                .on("getPrevious", args -> {
+                    int index = groups.indexOf(groupName(args[0]));
+                    return index <= 0 ? null : groups.get(index - 1);
+                })
+                .build();
+    }
+
+    private static String groupName(Object group) {
+        return group instanceof Group ? ((Group) group).getName() : (String) group;
+    }
+
+    private ImmutableContextSet contextSet(Map<String, String> contexts) {
+        Set<Context> set = new LinkedHashSet<>();
+        for (Map.Entry<String, String> entry : contexts.entrySet()) {
+            set.add(new Stub<>(Context.class, entry.getKey() + "=" + entry.getValue())
+                    .returning("getKey", entry.getKey())
+                    .returning("getValue", entry.getValue())
+                    .build()
+            );
+        }
+
+        Set<Context> unmodifiableSet = Collections.unmodifiableSet(set);
+        return new Stub<>(ImmutableContextSet.class, "ImmutableContextSet" + contexts)
+                .returning("toSet", unmodifiableSet)
+                .returning("isEmpty", contexts.isEmpty())
+                .returning("size", contexts.size())
+                .returning("immutableCopy", null)
+                .on("getValues", args -> {
+                    String value = contexts.get((String) args[0]);
+                    return value == null ? Set.of() : Set.of(value);
+                })
+                .on("getAnyValue", args -> Optional.ofNullable(contexts.get((String) args[0])))
+                .on("containsKey", args -> contexts.containsKey((String) args[0]))
+                .on("isSatisfiedBy", args -> true)
+                .on("iterator", args -> unmodifiableSet.iterator())
+                .build();
+    }
+
+    private QueryOptions queryOptions(ImmutableContextSet context) {
+        Stub<QueryOptions> stub = new Stub<>(QueryOptions.class, "QueryOptions");
+        stub.returning("context", context)
+                .on("satisfies", args -> true)
+                .on("option", args -> Optional.empty())
+                .on("toBuilder", args -> queryOptionsBuilder(context));
+        return stub.build();
+    }
+
+    private QueryOptions.Builder queryOptionsBuilder(ImmutableContextSet context) {
+        Stub<QueryOptions.Builder> stub = new Stub<>(QueryOptions.Builder.class, "QueryOptions.Builder");
+        QueryOptions.Builder[] self = new QueryOptions.Builder[1];
+        stub.on("option", args -> self[0])
+                .on("context", args -> self[0])
+                .on("build", args -> queryOptions(context));
+        self[0] = stub.build();
+        return self[0];
+    }
+
+    private UserManager userManager() {
+        return new Stub<>(UserManager.class, "UserManager")
+                .on("getUser", args -> {
+                    if (args[0] instanceof UUID) {
+                        return this.users.get(args[0]);
+                    }
+                    return this.users.values().stream().filter(u -> u.getUsername().equals(args[0])).findFirst().orElse(null);
+                })
+                .on("isLoaded", args -> this.users.containsKey((UUID) args[0]))
+                .on("loadUser", args -> CompletableFuture.completedFuture(this.users.get((UUID) args[0])))
+                .on("getLoadedUsers", args -> Set.copyOf(this.users.values()))
+                .build();
+    }
+
+    private GroupManager groupManager() {
+        return new Stub<>(GroupManager.class, "GroupManager")
+                .on("getGroup", args -> this.groups.get((String) args[0]))
+                .on("isLoaded", args -> this.groups.containsKey((String) args[0]))
+                .on("getLoadedGroups", args -> Set.copyOf(this.groups.values()))
+                .build();
+    }
+
+    private TrackManager trackManager() {
+        return new Stub<>(TrackManager.class, "TrackManager")
+                .on("getTrack", args -> this.tracks.get((String) args[0]))
+                .on("isLoaded", args -> this.tracks.containsKey((String) args[0]))
+                .on("getLoadedTracks", args -> Set.copyOf(this.tracks.values()))
+                .build();
+    }
+
+    private ContextManager contextManager() {
+        return new Stub<>(ContextManager.class, "ContextManager")
+                .on("getContext", args -> args[0] instanceof User ? Optional.of(this.playerContext) : this.playerContext)
+                .on("getQueryOptions", args -> {
+                    QueryOptions options = this.queryOptions.computeIfAbsent(args[0], x -> queryOptions(this.playerContext));
+                    return args[0] instanceof User ? Optional.of(options) : options;
+                })
+                .returning("getStaticContext", this.emptyContext)
+                .returning("getStaticQueryOptions", this.staticQueryOptions)
+                .on("signalContextUpdate", args -> null)
+                .build();
+    }
+
+    private MetaStackFactory metaStackFactory() {
+        return new Stub<>(MetaStackFactory.class, "MetaStackFactory")
+                .on("fromString", args -> {
+                    String element = (String) args[0];
+                    if (!element.startsWith("highest") && !element.startsWith("lowest")) {
+                        return Optional.empty();
+                    }
+                    return Optional.of(new Stub<>(MetaStackElement.class, "MetaStackElement(" + element + ")").build());
+                })
+                .on("createDefinition", args -> new Stub<>(MetaStackDefinition.class, "MetaStackDefinition")
+                        .returning("getElements", args[0])
+                        .returning("getDuplicateRemovalFunction", args[1])
+                        .returning("getStartSpacer", args[2])
+                        .returning("getMiddleSpacer", args[3])
+                        .returning("getEndSpacer", args[4])
+                        .build()
+                )
+                .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private EventBus eventBus() {
+        return new Stub<>(EventBus.class, "EventBus")
+                .on("subscribe", args -> {
+                    // subscribe(Class, Consumer) or subscribe(Object plugin, Class, Consumer)
+                    Class<?> eventClass = (Class<?>) args[args.length - 2];
+                    Consumer<Object> handler = (Consumer<Object>) args[args.length - 1];
+                    List<Consumer<Object>> list = this.handlers.computeIfAbsent(eventClass, x -> new CopyOnWriteArrayList<>());
+                    list.add(handler);
+                    return new Stub<>(EventSubscription.class, "EventSubscription(" + eventClass.getSimpleName() + ")")
+                            .returning("getEventClass", eventClass)
+                            .returning("getHandler", handler)
+                            .on("isActive", a -> list.contains(handler))
+                            .on("close", a -> list.remove(handler))
+                            .build();
+                })
+                .build();
+    }
+
+    /**
+     * A platform player object.
+     */
+    static final class StubPlayer {
+        private final UUID uniqueId;
+
+        StubPlayer(UUID uniqueId) {
+            this.uniqueId = uniqueId;
+        }
+
+        public UUID getUniqueId() {
+            return this.uniqueId;
+        }
+    }
+
+    /**
+     * A {@link PlaceholderPlatform} for {@link StubPlayer}s.
+     */
+    static final class StubPlatform implements PlaceholderPlatform {
+        private final StubLuckPerms luckPerms;
+
+        StubPlatform(StubLuckPerms luckPerms) {
+            this.luckPerms = luckPerms;
+        }
+
+        @Override
+        public UUID getUniqueId(Object player) {
+            return player instanceof StubPlayer ? ((StubPlayer) player).getUniqueId() : null;
+        }
+
+        @Override
+        public Object getPlayer(UUID uniqueId) {
+            return this.luckPerms.players.get(uniqueId);
+        }
+    }
+}
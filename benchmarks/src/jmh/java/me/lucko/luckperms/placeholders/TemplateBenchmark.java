@@ -0,0 +1,101 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of rendering a chat format containing several placeholders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TemplateBenchmark {
+
+    @Param({"%luckperms_prefix%%player% [%luckperms_primary_group_name%] %luckperms_suffix%: "})
+    public String template;
+
+    private LPPlaceholderProvider provider;
+    private CompiledTemplate compiled;
+    private List<StubLuckPerms.StubPlayer> players;
+    private int next;
+
+    private final StringBuilder builder = new StringBuilder(256);
+
+    @Setup(Level.Trial)
+    public void setup() {
+        StubLuckPerms luckPerms = new StubLuckPerms(100, 20, 200, 4);
+        this.provider = new LPPlaceholderProvider(new StubLuckPerms.StubPlatform(luckPerms), luckPerms.getApi());
+        this.compiled = this.provider.compileTemplate(this.template);
+        this.players = luckPerms.getPlayers();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.provider.close();
+    }
+
+    private StubLuckPerms.StubPlayer nextPlayer() {
+        int next = this.next + 1;
+        if (next == this.players.size()) {
+            next = 0;
+        }
+        this.next = next;
+        return this.players.get(next);
+    }
+
+    @Benchmark
+    public String render() {
+        StubLuckPerms.StubPlayer player = nextPlayer();
+        return this.compiled.render(player, player.getUniqueId());
+    }
+
+    @Benchmark
+    public StringBuilder renderTo() {
+        StubLuckPerms.StubPlayer player = nextPlayer();
+        this.builder.setLength(0);
+        this.compiled.renderTo(player, player.getUniqueId(), this.builder);
+        return this.builder;
+    }
+
+    @Benchmark
+    public String compileAndRender() {
+        StubLuckPerms.StubPlayer player = nextPlayer();
+        return this.provider.compileTemplate(this.template).render(player, player.getUniqueId());
+    }
+}
@@ -30,14 +30,21 @@ import be.maximvdw.placeholderapi.PlaceholderReplaceEvent;
 import be.maximvdw.placeholderapi.PlaceholderReplacer;
 import net.luckperms.api.LuckPerms;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 
-import java.util.Locale;
+import java.util.UUID;
 
 /**
  * MVdWPlaceholderAPI Hook for LuckPerms, implemented using the LuckPerms API.
  */
-public class LuckPermsMVdWHook extends JavaPlugin implements PlaceholderReplacer, PlaceholderPlatform {
+public class LuckPermsMVdWHook extends JavaPlugin implements PlaceholderReplacer, PlaceholderPlatform, Listener {
+    private static final String PREFIX = "luckperms_";
+
     private LPPlaceholderProvider provider;
 
     @Override
@@ -47,25 +54,89 @@ public class LuckPermsMVdWHook extends JavaPlugin implements PlaceholderReplacer
         }
 
         LuckPerms luckPerms = getServer().getServicesManager().load(LuckPerms.class);
-        this.provider = new LPPlaceholderProvider(this, luckPerms);
-        PlaceholderAPI.registerPlaceholder(this, "luckperms_*", this);
+        LPPlaceholderProvider provider = new LPPlaceholderProvider(this, luckPerms);
+        this.provider = provider;
+
+        // register static placeholders individually, so MVdW can route them directly
+        // (and cache them per placeholder). dynamic placeholders go through the wildcard
+        provider.getPlaceholders().forEach((id, placeholder) -> {
+            if (placeholder instanceof StaticPlaceholder) {
+                PlaceholderAPI.registerPlaceholder(this, PREFIX + id, new StaticReplacer(provider.compile(id)));
+            }
+        });
+        PlaceholderAPI.registerPlaceholder(this, PREFIX + "*", this);
+
+        getServer().getPluginManager().registerEvents(this, this);
+    }
+
+    @Override
+    public void onDisable() {
+        if (this.provider != null) {
+            this.provider.close();
+            this.provider = null;
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        if (this.provider != null) {
+            this.provider.onPlayerJoin(event.getPlayer().getUniqueId());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        if (this.provider != null) {
+            this.provider.onPlayerQuit(event.getPlayer().getUniqueId());
+        }
     }
 
     @Override
     public String onPlaceholderReplace(PlaceholderReplaceEvent event) {
         String placeholder = event.getPlaceholder();
-        if (!placeholder.startsWith("luckperms_")) {
+        if (!placeholder.startsWith(PREFIX)) {
             return null;
         }
 
-        String identifier = placeholder.substring("luckperms_".length()).toLowerCase(Locale.ROOT);
         Player player = event.getPlayer();
-
-        if (player == null || this.provider == null) {
+        LPPlaceholderProvider provider = this.provider;
+        if (player == null || provider == null) {
             return "";
         }
 
-        return this.provider.onPlaceholderRequest(player, player.getUniqueId(), identifier);
+        // match the identifier in place, the provider ignores case itself
+        return provider.onPlaceholderRequest(player, player.getUniqueId(), placeholder, PREFIX.length(), placeholder.length());
+    }
+
+    @Override
+    public UUID getUniqueId(Object player) {
+        return player instanceof Player ? ((Player) player).getUniqueId() : null;
+    }
+
+    @Override
+    public Object getPlayer(UUID uniqueId) {
+        return getServer().getPlayer(uniqueId);
+    }
+
+    /**
+     * Replaces a single static placeholder, using a pre-compiled handle.
+     */
+    private final class StaticReplacer implements PlaceholderReplacer {
+        private final CompiledPlaceholder placeholder;
+
+        StaticReplacer(CompiledPlaceholder placeholder) {
+            this.placeholder = placeholder;
+        }
+
+        @Override
+        public String onPlaceholderReplace(PlaceholderReplaceEvent event) {
+            Player player = event.getPlayer();
+            if (player == null || LuckPermsMVdWHook.this.provider == null) {
+                return "";
+            }
+
+            return this.placeholder.evaluate(player, player.getUniqueId());
+        }
     }
 
 }
@@ -26,15 +26,28 @@
 package me.lucko.luckperms.placeholders;
 
 import me.clip.placeholderapi.PlaceholderAPIPlugin;
+import me.clip.placeholderapi.expansion.Cacheable;
 import me.clip.placeholderapi.expansion.PlaceholderExpansion;
+import me.clip.placeholderapi.expansion.Relational;
 import net.luckperms.api.LuckPerms;
 import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.UUID;
 
 /**
  * PlaceholderAPI Expansion for LuckPerms, implemented using the LuckPerms API.
+ *
+ * <p>PlaceholderAPI registers the expansion as an event listener when the
+ * expansion is registered.</p>
  */
-public class LuckPermsExpansion extends PlaceholderExpansion implements PlaceholderPlatform {
+public class LuckPermsExpansion extends PlaceholderExpansion implements PlaceholderPlatform, Cacheable, Relational, Listener {
     private static final String IDENTIFIER = "luckperms";
     private static final String PLUGIN_NAME = "LuckPerms";
     private static final String AUTHOR = "Luck";
@@ -67,11 +80,75 @@ public class LuckPermsExpansion extends PlaceholderExpansion implements Placehol
         return this.provider.onPlaceholderRequest(player, player.getUniqueId(), identifier);
     }
 
+    @Override
+    public String onRequest(OfflinePlayer player, String identifier) {
+        if (player == null || this.provider == null) {
+            return "";
+        }
+
+        // use the online player where possible, so their current contexts apply
+        Player onlinePlayer = player.getPlayer();
+        if (onlinePlayer != null) {
+            return onPlaceholderRequest(onlinePlayer, identifier);
+        }
+
+        // offline - the provider loads the user asynchronously, and resolves
+        // placeholders once they've been loaded
+        return this.provider.onPlaceholderRequest(player, player.getUniqueId(), identifier);
+    }
+
+    @Override
+    public String onPlaceholderRequest(Player one, Player two, String identifier) {
+        if (one == null || two == null || this.provider == null) {
+            return "";
+        }
+
+        // %rel_luckperms_...% - the first player is viewing the second
+        return this.provider.onRelationalPlaceholderRequest(one, one.getUniqueId(), two, two.getUniqueId(), identifier);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        if (this.provider != null) {
+            this.provider.onPlayerJoin(event.getPlayer().getUniqueId());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        if (this.provider != null) {
+            this.provider.onPlayerQuit(event.getPlayer().getUniqueId());
+        }
+    }
+
+    @Override
+    public void clear() {
+        if (this.provider != null) {
+            this.provider.close();
+            this.provider = null;
+        }
+    }
+
     @Override
     public String formatBoolean(boolean b) {
         return b ? PlaceholderAPIPlugin.booleanTrue() : PlaceholderAPIPlugin.booleanFalse();
     }
 
+    @Override
+    public UUID getUniqueId(Object player) {
+        return player instanceof OfflinePlayer ? ((OfflinePlayer) player).getUniqueId() : null;
+    }
+
+    @Override
+    public boolean isOnline(Object player) {
+        return player instanceof Player;
+    }
+
+    @Override
+    public Object getPlayer(UUID uniqueId) {
+        return Bukkit.getPlayer(uniqueId);
+    }
+
     @Override
     public String getIdentifier() {
         return IDENTIFIER;
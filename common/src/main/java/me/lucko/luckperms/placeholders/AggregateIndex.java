@@ -0,0 +1,330 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.LuckPerms;
+import net.luckperms.api.context.ContextManager;
+import net.luckperms.api.model.group.Group;
+import net.luckperms.api.model.user.User;
+import net.luckperms.api.model.user.UserManager;
+import net.luckperms.api.node.NodeType;
+import net.luckperms.api.node.types.InheritanceNode;
+import net.luckperms.api.query.QueryOptions;
+import net.luckperms.api.track.Track;
+import net.luckperms.api.track.TrackManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Maintains counts of the online players in each group, and at each position
+ * on each track.
+ *
+ * <p>Counts are updated incrementally as players join, quit and have their data
+ * recalculated, so reading them never scans the online players. Players are
+ * counted from when the platform reports that they have joined until it reports
+ * that they have quit, or LuckPerms unloads their user if that happens first.</p>
+ *
+ * <p>Updates are serialized, but reads don't lock.</p>
+ */
+final class AggregateIndex implements DataChangeListener {
+    private final PlaceholderPlatform platform;
+    private final UserManager userManager;
+    private final TrackManager trackManager;
+    private final ContextManager contextManager;
+
+    /**
+     * The groups of each online player
+     */
+    private final Map<UUID, Membership> members = new ConcurrentHashMap<>();
+
+    /**
+     * The number of online players which inherit each group, keyed by lowercase group name
+     */
+    private final Map<String, AtomicInteger> groupCounts = new ConcurrentHashMap<>();
+
+    /**
+     * The number of online players at each position on each track, keyed by lowercase track name
+     */
+    private volatile Map<String, TrackHistogram> tracks = Collections.emptyMap();
+
+    AggregateIndex(PlaceholderPlatform platform, LuckPerms luckPerms) {
+        this.platform = platform;
+        this.userManager = luckPerms.getUserManager();
+        this.trackManager = luckPerms.getTrackManager();
+        this.contextManager = luckPerms.getContextManager();
+    }
+
+    /**
+     * Counts the players who were already online before the index was created.
+     *
+     * <p>Only players the platform can look up (see {@link PlaceholderPlatform#getPlayer(UUID)})
+     * are counted, the rest are counted when they next join.</p>
+     */
+    public synchronized void init() {
+        rebuildTracks();
+        for (User user : this.userManager.getLoadedUsers()) {
+            if (this.platform.getPlayer(user.getUniqueId()) != null) {
+                update(user.getUniqueId());
+            }
+        }
+    }
+
+    /**
+     * Gets the number of online players.
+     *
+     * @return the number of online players
+     */
+    public int getOnlineCount() {
+        return this.members.size();
+    }
+
+    /**
+     * Gets the number of online players which inherit a group.
+     *
+     * @param group the group name, in any case
+     * @return the number of online players in the group
+     */
+    public int getGroupCount(String group) {
+        AtomicInteger count = this.groupCounts.get(group.toLowerCase(Locale.ROOT));
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Gets the counts of online players on a track.
+     *
+     * @param track the track name, in any case
+     * @return the counts, or null if the track doesn't exist
+     */
+    public TrackHistogram getTrack(String track) {
+        return this.tracks.get(track.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Recomputes the groups of an online player, and updates the counts.
+     *
+     * @param uniqueId the players unique id
+     */
+    private synchronized void update(UUID uniqueId) {
+        User user = this.userManager.getUser(uniqueId);
+        if (user == null) {
+            remove(uniqueId);
+            return;
+        }
+
+        QueryOptions queryOptions = this.contextManager.getQueryOptions(user).orElseGet(this.contextManager::getStaticQueryOptions);
+        Membership membership = Membership.build(user, queryOptions);
+        Membership previous = this.members.put(uniqueId, membership);
+        if (previous != null) {
+            count(previous, -1);
+        }
+        count(membership, 1);
+    }
+
+    private synchronized void updateAll() {
+        for (UUID uniqueId : new ArrayList<>(this.members.keySet())) {
+            update(uniqueId);
+        }
+    }
+
+    private synchronized void remove(UUID uniqueId) {
+        Membership previous = this.members.remove(uniqueId);
+        if (previous != null) {
+            count(previous, -1);
+        }
+    }
+
+    private void count(Membership membership, int delta) {
+        for (String group : membership.inheritedGroups) {
+            this.groupCounts.computeIfAbsent(group, x -> new AtomicInteger()).addAndGet(delta);
+        }
+        for (TrackHistogram track : this.tracks.values()) {
+            track.count(membership, delta);
+        }
+    }
+
+    private synchronized void rebuildTracks() {
+        Map<String, TrackHistogram> tracks = new HashMap<>();
+        for (Track track : this.trackManager.getLoadedTracks()) {
+            TrackHistogram histogram = new TrackHistogram(track.getGroups());
+            for (Membership membership : this.members.values()) {
+                histogram.count(membership, 1);
+            }
+            tracks.put(track.getName().toLowerCase(Locale.ROOT), histogram);
+        }
+        this.tracks = tracks;
+    }
+
+    @Override
+    public void onPlayerJoin(UUID uniqueId) {
+        update(uniqueId);
+    }
+
+    @Override
+    public void onUserDataChange(UUID uniqueId) {
+        if (this.members.containsKey(uniqueId)) {
+            update(uniqueId);
+        }
+    }
+
+    @Override
+    public void onGroupDataChange() {
+        // group inheritance may have changed
+        updateAll();
+    }
+
+    @Override
+    public void onTrackDataChange() {
+        rebuildTracks();
+    }
+
+    @Override
+    public void onContextChange(UUID uniqueId) {
+        if (uniqueId == null) {
+            updateAll();
+        } else if (this.members.containsKey(uniqueId)) {
+            update(uniqueId);
+        }
+    }
+
+    @Override
+    public void onPlayerQuit(UUID uniqueId) {
+        remove(uniqueId);
+    }
+
+    @Override
+    public void onUserUnload(UUID uniqueId) {
+        remove(uniqueId);
+    }
+
+    /**
+     * The groups an online player is a member of, at the time they were counted.
+     */
+    private static final class Membership {
+        static Membership build(User user, QueryOptions queryOptions) {
+            List<String> directGroups = new ArrayList<>();
+            for (InheritanceNode node : user.getNodes(NodeType.INHERITANCE)) {
+                if (queryOptions.satisfies(node.getContexts())) {
+                    directGroups.add(node.getGroupName().toLowerCase(Locale.ROOT));
+                }
+            }
+
+            Set<String> inheritedGroups = new HashSet<>();
+            for (Group group : user.getInheritedGroups(queryOptions)) {
+                inheritedGroups.add(group.getName().toLowerCase(Locale.ROOT));
+            }
+
+            return new Membership(directGroups, inheritedGroups);
+        }
+
+        private final List<String> directGroups;
+        private final Set<String> inheritedGroups;
+
+        private Membership(List<String> directGroups, Set<String> inheritedGroups) {
+            this.directGroups = directGroups;
+            this.inheritedGroups = inheritedGroups;
+        }
+    }
+
+    /**
+     * The number of online players at each position on a track.
+     */
+    static final class TrackHistogram {
+        private final List<String> groups;
+        private final Map<String, Integer> positions;
+        private final AtomicIntegerArray counts;
+        private final AtomicInteger total = new AtomicInteger();
+
+        TrackHistogram(List<String> groups) {
+            Map<String, Integer> positions = new HashMap<>(groups.size());
+            for (int i = 0; i < groups.size(); i++) {
+                positions.putIfAbsent(groups.get(i).toLowerCase(Locale.ROOT), i);
+            }
+
+            this.groups = Collections.unmodifiableList(new ArrayList<>(groups));
+            this.positions = positions;
+            this.counts = new AtomicIntegerArray(groups.size());
+        }
+
+        /**
+         * Gets the groups on the track, in order.
+         *
+         * @return the groups
+         */
+        public List<String> getGroups() {
+            return this.groups;
+        }
+
+        /**
+         * Gets the number of online players at a position on the track.
+         *
+         * @param position the position
+         * @return the number of players
+         */
+        public int getCount(int position) {
+            return this.counts.get(position);
+        }
+
+        /**
+         * Gets the number of online players on the track.
+         *
+         * @return the number of players
+         */
+        public int getTotal() {
+            return this.total.get();
+        }
+
+        void count(Membership membership, int delta) {
+            // players are on the track if they are directly in exactly one of its groups,
+            // matching the current_group_on_track placeholder
+            int position = -1;
+            for (String group : membership.directGroups) {
+                Integer groupPosition = this.positions.get(group);
+                if (groupPosition != null) {
+                    if (position != -1) {
+                        return;
+                    }
+                    position = groupPosition;
+                }
+            }
+
+            if (position != -1) {
+                this.counts.addAndGet(position, delta);
+                this.total.addAndGet(delta);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import java.util.UUID;
+
+/**
+ * A piece of text containing {@code %luckperms_...%} placeholders, which has
+ * been split into literal text and {@link CompiledPlaceholder}s ahead of time,
+ * so it can be rendered repeatedly.
+ *
+ * <p>Templates are immutable and may be shared between threads.</p>
+ *
+ * @see PlaceholderProvider#compileTemplate(String)
+ */
+public interface CompiledTemplate {
+
+    /**
+     * Gets the text this template was compiled from.
+     *
+     * @return the template text
+     */
+    String getTemplate();
+
+    /**
+     * Renders the template for the given player.
+     *
+     * @param player the platform player object
+     * @param playerUuid the players unique id
+     * @return the rendered text
+     */
+    String render(Object player, UUID playerUuid);
+
+    /**
+     * Renders the template for the given player, appending the result to a builder.
+     *
+     * @param player the platform player object
+     * @param playerUuid the players unique id
+     * @param builder the builder to append to
+     */
+    void renderTo(Object player, UUID playerUuid, StringBuilder builder);
+
+}
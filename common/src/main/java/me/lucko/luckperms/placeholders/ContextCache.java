@@ -0,0 +1,200 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.context.Context;
+import net.luckperms.api.context.ContextManager;
+import net.luckperms.api.context.ImmutableContextSet;
+import net.luckperms.api.query.QueryOptions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches a snapshot of each player's current contexts and {@link QueryOptions}.
+ *
+ * <p>Snapshots are dropped when LuckPerms signals that a player's contexts have
+ * changed, and when the user is unloaded. Not every context calculator signals
+ * its changes, so snapshots also expire after a short time.</p>
+ */
+final class ContextCache implements DataChangeListener {
+
+    static final String MAX_AGE_PROPERTY = "luckperms.placeholders.contextCacheMillis";
+
+    /**
+     * How long a snapshot can be used for, before it is recalculated. Matches the
+     * default lifetime of LuckPerms' own context cache, so placeholders are no
+     * staler than permission checks, and can be changed with the
+     * {@value #MAX_AGE_PROPERTY} system property.
+     */
+    private static final long MAX_AGE_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong(MAX_AGE_PROPERTY, 50));
+
+    private final PlaceholderPlatform platform;
+    private final ContextManager contextManager;
+    private final Map<UUID, CachedPlayer> players = new ConcurrentHashMap<>();
+
+    /**
+     * The snapshot used for offline players, based on the static contexts
+     */
+    private volatile ContextSnapshot offline;
+
+    ContextCache(PlaceholderPlatform platform, ContextManager contextManager) {
+        this.platform = platform;
+        this.contextManager = contextManager;
+    }
+
+    /**
+     * Gets a snapshot of the players current contexts, or the static contexts
+     * if the player is offline.
+     *
+     * @param player the platform player object
+     * @param uniqueId the players unique id
+     * @return the snapshot
+     */
+    public ContextSnapshot get(Object player, UUID uniqueId) {
+        long now = System.nanoTime();
+
+        if (!this.platform.isOnline(player)) {
+            ContextSnapshot snapshot = this.offline;
+            if (snapshot == null || now - snapshot.created > MAX_AGE_NANOS) {
+                snapshot = new ContextSnapshot(this.contextManager.getStaticQueryOptions(), now);
+                this.offline = snapshot;
+            }
+            return snapshot;
+        }
+
+        // obtain the cached player before computing, so a concurrent invalidation
+        // causes the (possibly stale) result to be written to a discarded instance
+        CachedPlayer cached = this.players.computeIfAbsent(uniqueId, x -> new CachedPlayer());
+
+        ContextSnapshot snapshot = cached.snapshot;
+        if (snapshot == null || now - snapshot.created > MAX_AGE_NANOS) {
+            snapshot = new ContextSnapshot(this.contextManager.getQueryOptions(player), now);
+            cached.snapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets the most recent snapshot of an online player's contexts, however old
+     * it is, without calling into the platform.
+     *
+     * @param uniqueId the players unique id
+     * @return the snapshot, or null if there isn't one
+     */
+    public ContextSnapshot getLast(UUID uniqueId) {
+        CachedPlayer cached = this.players.get(uniqueId);
+        return cached == null ? null : cached.snapshot;
+    }
+
+    /**
+     * Gets a snapshot of the contexts in the given query options, reusing the
+     * player's cached snapshot if it was created from the same options.
+     *
+     * @param uniqueId the players unique id
+     * @param queryOptions the query options
+     * @return the snapshot
+     */
+    public ContextSnapshot get(UUID uniqueId, QueryOptions queryOptions) {
+        ContextSnapshot snapshot = getLast(uniqueId);
+        if (snapshot != null && snapshot.queryOptions.equals(queryOptions)) {
+            return snapshot;
+        }
+        return new ContextSnapshot(queryOptions, System.nanoTime());
+    }
+
+    @Override
+    public void onContextChange(UUID uniqueId) {
+        if (uniqueId == null) {
+            this.players.clear();
+        } else {
+            this.players.remove(uniqueId);
+        }
+    }
+
+    @Override
+    public void onUserUnload(UUID uniqueId) {
+        this.players.remove(uniqueId);
+    }
+
+    private static final class CachedPlayer {
+        private volatile ContextSnapshot snapshot;
+    }
+
+    /**
+     * An immutable snapshot of a player's contexts.
+     */
+    static final class ContextSnapshot {
+        private final QueryOptions queryOptions;
+        private final String joined;
+        private final Map<String, String> values;
+        private final long created;
+
+        ContextSnapshot(QueryOptions queryOptions, long created) {
+            this.queryOptions = queryOptions;
+            this.created = created;
+
+            ImmutableContextSet contexts = queryOptions.context();
+            StringBuilder joined = new StringBuilder();
+            Map<String, String> values = new LinkedHashMap<>();
+            for (Context context : contexts.toSet()) {
+                if (joined.length() != 0) {
+                    joined.append(", ");
+                }
+                joined.append(context.getKey()).append('=').append(context.getValue());
+                values.merge(context.getKey(), context.getValue(), (a, b) -> a + ", " + b);
+            }
+            this.joined = joined.toString();
+            this.values = values;
+        }
+
+        public QueryOptions getQueryOptions() {
+            return this.queryOptions;
+        }
+
+        /**
+         * Gets the contexts joined into a {@code key=value, key=value} string.
+         *
+         * @return the joined contexts
+         */
+        public String getJoined() {
+            return this.joined;
+        }
+
+        /**
+         * Gets the values for a context key, joined into a comma separated string.
+         *
+         * @param key the context key
+         * @return the joined values, or an empty string if there are none
+         */
+        public String getValues(String key) {
+            return this.values.getOrDefault(key, "");
+        }
+    }
+}
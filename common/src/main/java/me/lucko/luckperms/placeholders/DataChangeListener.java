@@ -0,0 +1,107 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import java.util.UUID;
+
+/**
+ * Listens for changes to the LuckPerms data which placeholders are computed from.
+ *
+ * <p>Methods may be called from any thread.</p>
+ *
+ * @see DataChangeNotifier
+ */
+interface DataChangeListener {
+
+    /**
+     * Called when the data of a user has been recalculated.
+     *
+     * @param uniqueId the users unique id
+     */
+    default void onUserDataChange(UUID uniqueId) {
+
+    }
+
+    /**
+     * Called when any group has been created, deleted, loaded or changed.
+     */
+    default void onGroupDataChange() {
+
+    }
+
+    /**
+     * Called when any track has changed.
+     */
+    default void onTrackDataChange() {
+
+    }
+
+    /**
+     * Called when the contexts of a player have changed.
+     *
+     * @param uniqueId the players unique id, or null if it could not be determined
+     */
+    default void onContextChange(UUID uniqueId) {
+
+    }
+
+    /**
+     * Called when a player has joined, as reported by the platform.
+     *
+     * @param uniqueId the players unique id
+     */
+    default void onPlayerJoin(UUID uniqueId) {
+
+    }
+
+    /**
+     * Called when a player has quit, as reported by the platform.
+     *
+     * @param uniqueId the players unique id
+     */
+    default void onPlayerQuit(UUID uniqueId) {
+
+    }
+
+    /**
+     * Called when a user is loaded by LuckPerms.
+     *
+     * @param uniqueId the users unique id
+     */
+    default void onUserLoad(UUID uniqueId) {
+
+    }
+
+    /**
+     * Called when a user is unloaded by LuckPerms, usually after they log out.
+     *
+     * @param uniqueId the users unique id
+     */
+    default void onUserUnload(UUID uniqueId) {
+
+    }
+
+}
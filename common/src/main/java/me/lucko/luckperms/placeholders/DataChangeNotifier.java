@@ -0,0 +1,151 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.LuckPerms;
+import net.luckperms.api.event.EventBus;
+import net.luckperms.api.event.EventSubscription;
+import net.luckperms.api.event.LuckPermsEvent;
+import net.luckperms.api.event.context.ContextUpdateEvent;
+import net.luckperms.api.event.group.GroupCreateEvent;
+import net.luckperms.api.event.group.GroupDataRecalculateEvent;
+import net.luckperms.api.event.group.GroupDeleteEvent;
+import net.luckperms.api.event.group.GroupLoadAllEvent;
+import net.luckperms.api.event.node.NodeMutateEvent;
+import net.luckperms.api.event.track.TrackCreateEvent;
+import net.luckperms.api.event.track.TrackDeleteEvent;
+import net.luckperms.api.event.track.TrackLoadAllEvent;
+import net.luckperms.api.event.track.TrackLoadEvent;
+import net.luckperms.api.event.track.mutate.TrackAddGroupEvent;
+import net.luckperms.api.event.track.mutate.TrackClearEvent;
+import net.luckperms.api.event.track.mutate.TrackRemoveGroupEvent;
+import net.luckperms.api.event.user.UserDataRecalculateEvent;
+import net.luckperms.api.event.user.UserLoadEvent;
+import net.luckperms.api.event.user.UserUnloadEvent;
+import net.luckperms.api.model.user.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Subscribes to the LuckPerms {@link EventBus} and notifies {@link DataChangeListener}s
+ * when the data placeholders are computed from changes.
+ */
+final class DataChangeNotifier implements AutoCloseable {
+    private final PlaceholderPlatform platform;
+    private final EventBus eventBus;
+    private final List<DataChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<EventSubscription<?>> subscriptions = new ArrayList<>();
+
+    DataChangeNotifier(PlaceholderPlatform platform, LuckPerms luckPerms) {
+        this.platform = platform;
+        this.eventBus = luckPerms.getEventBus();
+    }
+
+    /**
+     * Subscribes to the events this notifier relays.
+     */
+    public void register() {
+        subscribe(UserDataRecalculateEvent.class, e -> notify(l -> l.onUserDataChange(e.getUser().getUniqueId())));
+        subscribe(UserLoadEvent.class, e -> notify(l -> l.onUserLoad(e.getUser().getUniqueId())));
+        subscribe(UserUnloadEvent.class, e -> notify(l -> l.onUserUnload(e.getUser().getUniqueId())));
+        subscribe(NodeMutateEvent.class, e -> {
+            if (e.isUser()) {
+                UUID uniqueId = ((User) e.getTarget()).getUniqueId();
+                notify(l -> l.onUserDataChange(uniqueId));
+            }
+        });
+
+        subscribe(GroupCreateEvent.class, e -> notify(DataChangeListener::onGroupDataChange));
+        subscribe(GroupDeleteEvent.class, e -> notify(DataChangeListener::onGroupDataChange));
+        subscribe(GroupLoadAllEvent.class, e -> notify(DataChangeListener::onGroupDataChange));
+        subscribe(GroupDataRecalculateEvent.class, e -> notify(DataChangeListener::onGroupDataChange));
+
+        subscribe(TrackCreateEvent.class, e -> notify(DataChangeListener::onTrackDataChange));
+        subscribe(TrackDeleteEvent.class, e -> notify(DataChangeListener::onTrackDataChange));
+        subscribe(TrackLoadEvent.class, e -> notify(DataChangeListener::onTrackDataChange));
+        subscribe(TrackLoadAllEvent.class, e -> notify(DataChangeListener::onTrackDataChange));
+        subscribe(TrackAddGroupEvent.class, e -> notify(DataChangeListener::onTrackDataChange));
+        subscribe(TrackRemoveGroupEvent.class, e -> notify(DataChangeListener::onTrackDataChange));
+        subscribe(TrackClearEvent.class, e -> notify(DataChangeListener::onTrackDataChange));
+
+        subscribe(ContextUpdateEvent.class, e -> {
+            UUID uniqueId = this.platform.getUniqueId(e.getSubject());
+            notify(l -> l.onContextChange(uniqueId));
+        });
+    }
+
+    /**
+     * Adds a listener to be notified of changes.
+     *
+     * @param listener the listener
+     */
+    public void addListener(DataChangeListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Notifies listeners that a player has joined. Called by the platform, as
+     * LuckPerms only posts an event for the login, which the platform may still deny.
+     *
+     * @param uniqueId the players unique id
+     */
+    public void playerJoin(UUID uniqueId) {
+        notify(l -> l.onPlayerJoin(uniqueId));
+    }
+
+    /**
+     * Notifies listeners that a player has quit. Called by the platform, as
+     * LuckPerms doesn't post an event for it.
+     *
+     * @param uniqueId the players unique id
+     */
+    public void playerQuit(UUID uniqueId) {
+        notify(l -> l.onPlayerQuit(uniqueId));
+    }
+
+    private <T extends LuckPermsEvent> void subscribe(Class<T> eventClass, Consumer<? super T> handler) {
+        this.subscriptions.add(this.eventBus.subscribe(eventClass, handler));
+    }
+
+    private void notify(Consumer<DataChangeListener> action) {
+        for (DataChangeListener listener : this.listeners) {
+            action.accept(listener);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (EventSubscription<?> subscription : this.subscriptions) {
+            subscription.close();
+        }
+        this.subscriptions.clear();
+        this.listeners.clear();
+    }
+}
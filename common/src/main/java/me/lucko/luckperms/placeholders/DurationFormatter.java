@@ -25,22 +25,30 @@
 
 package me.lucko.luckperms.placeholders;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
 
 // Copied from https://github.com/lucko/LuckPerms/blob/master/common/src/main/java/me/lucko/luckperms/common/util/DurationFormatter.java
 // Uses String instead of Chat Components
 
 /**
  * Formats durations to a readable form
+ *
+ * <p>Unit names are split into a prefix and suffix (either side of the amount)
+ * ahead of time, so formatting appends directly to the output without building
+ * translation keys or calling {@link String#format(String, Object...)}.</p>
  */
 class DurationFormatter {
-    public static final DurationFormatter LONG = new DurationFormatter(false);
-    public static final DurationFormatter CONCISE = new DurationFormatter(true);
-    public static final DurationFormatter CONCISE_LOW_ACCURACY = new DurationFormatter(true, 3);
-
     private static final ChronoUnit[] UNITS = new ChronoUnit[]{
             ChronoUnit.YEARS,
             ChronoUnit.MONTHS,
@@ -51,16 +59,36 @@ class DurationFormatter {
             ChronoUnit.SECONDS
     };
 
-    private final boolean concise;
+    private static final long[] UNIT_SECONDS = new long[UNITS.length];
+    static {
+        for (int i = 0; i < UNITS.length; i++) {
+            UNIT_SECONDS[i] = UNITS[i].getDuration().getSeconds();
+        }
+    }
+
+    private static final int SECONDS_INDEX = UNITS.length - 1;
+
+    // must be initialised after the unit tables above
+    public static final DurationFormatter LONG = new DurationFormatter(false);
+    public static final DurationFormatter CONCISE = new DurationFormatter(true);
+    public static final DurationFormatter CONCISE_LOW_ACCURACY = new DurationFormatter(true, 3);
+
     private final int accuracy;
+    private final UnitFormat[] singular;
+    private final UnitFormat[] plural;
 
     public DurationFormatter(boolean concise) {
         this(concise, Integer.MAX_VALUE);
     }
 
     public DurationFormatter(boolean concise, int accuracy) {
-        this.concise = concise;
+        this(concise, accuracy, UnitNames.ENGLISH);
+    }
+
+    public DurationFormatter(boolean concise, int accuracy, UnitNames names) {
         this.accuracy = accuracy;
+        this.singular = concise ? names.concise : names.singular;
+        this.plural = concise ? names.concise : names.plural;
     }
 
     /**
@@ -70,18 +98,65 @@ class DurationFormatter {
      * @return the formatted string
      */
     public String format(Duration duration) {
-        long seconds = duration.getSeconds();
-        StringBuilder builder = new StringBuilder();
+        return format(duration.getSeconds());
+    }
+
+    /**
+     * Formats a number of seconds as a string.
+     *
+     * @param seconds the number of seconds
+     * @return the formatted string
+     */
+    public String format(long seconds) {
+        StringBuilder builder = new StringBuilder(16);
+        formatTo(seconds, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Formats {@code duration}, appending the result to {@code builder}.
+     *
+     * @param duration the duration
+     * @param builder the builder to append to
+     */
+    public void formatTo(Duration duration, StringBuilder builder) {
+        formatTo(duration.getSeconds(), builder);
+    }
+
+    /**
+     * Formats a number of seconds, appending the result to {@code builder}.
+     *
+     * @param seconds the number of seconds
+     * @param builder the builder to append to
+     */
+    public void formatTo(long seconds, StringBuilder builder) {
+        try {
+            formatTo(seconds, (Appendable) builder);
+        } catch (IOException e) {
+            // StringBuilder doesn't throw
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Formats a number of seconds, appending the result to {@code out}.
+     *
+     * @param seconds the number of seconds
+     * @param out the appendable to append to
+     * @throws IOException if thrown by {@code out}
+     */
+    public void formatTo(long seconds, Appendable out) throws IOException {
         int outputSize = 0;
 
-        for (ChronoUnit unit : UNITS) {
-            long n = seconds / unit.getDuration().getSeconds();
+        for (int i = 0; i < UNITS.length; i++) {
+            long unitSeconds = UNIT_SECONDS[i];
+            long n = seconds / unitSeconds;
             if (n > 0) {
-                seconds -= unit.getDuration().getSeconds() * n;
+                seconds -= unitSeconds * n;
                 if (outputSize != 0) {
-                    builder.append(' ');
+                    out.append(' ');
                 }
-                builder.append(formatPart(n, unit));
+                formatPart(n, i, out);
                 outputSize++;
             }
             if (seconds <= 0 || outputSize >= this.accuracy) {
@@ -90,40 +165,168 @@ class DurationFormatter {
         }
 
         if (outputSize == 0) {
-            return formatPart(0, ChronoUnit.SECONDS);
+            formatPart(0, SECONDS_INDEX, out);
+        }
+    }
+
+    private void formatPart(long amount, int unit, Appendable out) throws IOException {
+        UnitFormat format = amount == 1 ? this.singular[unit] : this.plural[unit];
+        out.append(format.prefix);
+        appendLong(amount, out);
+        out.append(format.suffix);
+    }
+
+    private static void appendLong(long value, Appendable out) throws IOException {
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(value);
+        } else {
+            out.append(Long.toString(value));
         }
-        return builder.toString();
     }
 
-    // Taken from https://github.com/lucko/LuckPerms/blob/master/common/src/main/resources/luckperms_en.properties
-    private static final Map<String, String> TRANSLATIONS =  Map.ofEntries(
-            Map.entry("luckperms.duration.unit.years.plural", "%s years"),
-            Map.entry("luckperms.duration.unit.years.singular", "%s year"),
-            Map.entry("luckperms.duration.unit.years.short", "%sy"),
-            Map.entry("luckperms.duration.unit.months.plural", "%s months"),
-            Map.entry("luckperms.duration.unit.months.singular", "%s month"),
-            Map.entry("luckperms.duration.unit.months.short", "%smo"),
-            Map.entry("luckperms.duration.unit.weeks.plural", "%s weeks"),
-            Map.entry("luckperms.duration.unit.weeks.singular", "%s week"),
-            Map.entry("luckperms.duration.unit.weeks.short", "%sw"),
-            Map.entry("luckperms.duration.unit.days.plural", "%s days"),
-            Map.entry("luckperms.duration.unit.days.singular", "%s day"),
-            Map.entry("luckperms.duration.unit.days.short", "%sd"),
-            Map.entry("luckperms.duration.unit.hours.plural", "%s hours"),
-            Map.entry("luckperms.duration.unit.hours.singular", "%s hour"),
-            Map.entry("luckperms.duration.unit.hours.short", "%sh"),
-            Map.entry("luckperms.duration.unit.minutes.plural", "%s minutes"),
-            Map.entry("luckperms.duration.unit.minutes.singular", "%s minute"),
-            Map.entry("luckperms.duration.unit.minutes.short", "%sm"),
-            Map.entry("luckperms.duration.unit.seconds.plural", "%s seconds"),
-            Map.entry("luckperms.duration.unit.seconds.singular", "%s second"),
-            Map.entry("luckperms.duration.unit.seconds.short", "%ss")
-    );
-    
-    private String formatPart(long amount, ChronoUnit unit) {
-        String format = this.concise ? "short" : amount == 1 ? "singular" : "plural";
-        String translationKey = "luckperms.duration.unit." + unit.name().toLowerCase(Locale.ROOT) + "." + format;
-        return String.format(TRANSLATIONS.get(translationKey), amount);
+    /**
+     * The names of each unit, for a particular locale.
+     */
+    static final class UnitNames {
+
+        // Taken from https://github.com/lucko/LuckPerms/blob/master/common/src/main/resources/luckperms_en.properties
+        private static final Map<String, String> TRANSLATIONS =  Map.ofEntries(
+                Map.entry("luckperms.duration.unit.years.plural", "{0} years"),
+                Map.entry("luckperms.duration.unit.years.singular", "{0} year"),
+                Map.entry("luckperms.duration.unit.years.short", "{0}y"),
+                Map.entry("luckperms.duration.unit.months.plural", "{0} months"),
+                Map.entry("luckperms.duration.unit.months.singular", "{0} month"),
+                Map.entry("luckperms.duration.unit.months.short", "{0}mo"),
+                Map.entry("luckperms.duration.unit.weeks.plural", "{0} weeks"),
+                Map.entry("luckperms.duration.unit.weeks.singular", "{0} week"),
+                Map.entry("luckperms.duration.unit.weeks.short", "{0}w"),
+                Map.entry("luckperms.duration.unit.days.plural", "{0} days"),
+                Map.entry("luckperms.duration.unit.days.singular", "{0} day"),
+                Map.entry("luckperms.duration.unit.days.short", "{0}d"),
+                Map.entry("luckperms.duration.unit.hours.plural", "{0} hours"),
+                Map.entry("luckperms.duration.unit.hours.singular", "{0} hour"),
+                Map.entry("luckperms.duration.unit.hours.short", "{0}h"),
+                Map.entry("luckperms.duration.unit.minutes.plural", "{0} minutes"),
+                Map.entry("luckperms.duration.unit.minutes.singular", "{0} minute"),
+                Map.entry("luckperms.duration.unit.minutes.short", "{0}m"),
+                Map.entry("luckperms.duration.unit.seconds.plural", "{0} seconds"),
+                Map.entry("luckperms.duration.unit.seconds.singular", "{0} second"),
+                Map.entry("luckperms.duration.unit.seconds.short", "{0}s")
+        );
+
+        public static final UnitNames ENGLISH = new UnitNames(TRANSLATIONS);
+
+        static final String TRANSLATIONS_PROPERTY = "luckperms.placeholders.durationTranslations";
+
+        /**
+         * Loads unit names from the LuckPerms translations file at the path given by
+         * the {@value #TRANSLATIONS_PROPERTY} system property, e.g.
+         * {@code plugins/LuckPerms/translations/repository/de_DE.properties}.
+         *
+         * @return the unit names, or {@link #ENGLISH} if the property isn't set or
+         *         the file can't be read
+         */
+        public static UnitNames load() {
+            String path = System.getProperty(TRANSLATIONS_PROPERTY);
+            if (path == null || path.isEmpty()) {
+                return ENGLISH;
+            }
+
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            } catch (IOException | RuntimeException e) {
+                // missing or malformed - carry on in English, as if the property wasn't set
+                return ENGLISH;
+            }
+            return fromProperties(properties);
+        }
+
+        /**
+         * Creates unit names from LuckPerms translations, e.g. the contents of
+         * a {@code luckperms_<locale>.properties} file.
+         *
+         * <p>Translations use {@link java.text.MessageFormat} syntax, with the amount
+         * as argument {@code {0}}. Any missing translations, or translations
+         * without an {@code {0}} argument, fall back to English.</p>
+         *
+         * @param translations the translations, keyed by translation key
+         * @return the unit names
+         */
+        public static UnitNames fromTranslations(Map<String, String> translations) {
+            Map<String, String> merged = new HashMap<>(TRANSLATIONS);
+            for (Map.Entry<String, String> entry : translations.entrySet()) {
+                if (TRANSLATIONS.containsKey(entry.getKey()) && UnitFormat.parse(entry.getValue()) != null) {
+                    merged.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return new UnitNames(merged);
+        }
+
+        /**
+         * Creates unit names from a LuckPerms translations properties file.
+         *
+         * @param properties the properties
+         * @return the unit names
+         * @see #fromTranslations(Map)
+         */
+        public static UnitNames fromProperties(Properties properties) {
+            Map<String, String> translations = new HashMap<>();
+            for (String key : properties.stringPropertyNames()) {
+                translations.put(key, properties.getProperty(key));
+            }
+            return fromTranslations(translations);
+        }
+
+        private final UnitFormat[] singular = new UnitFormat[UNITS.length];
+        private final UnitFormat[] plural = new UnitFormat[UNITS.length];
+        private final UnitFormat[] concise = new UnitFormat[UNITS.length];
+
+        private UnitNames(Map<String, String> translations) {
+            for (int i = 0; i < UNITS.length; i++) {
+                String key = "luckperms.duration.unit." + UNITS[i].name().toLowerCase(Locale.ROOT) + ".";
+                this.singular[i] = UnitFormat.parse(translations.get(key + "singular"));
+                this.plural[i] = UnitFormat.parse(translations.get(key + "plural"));
+                this.concise[i] = UnitFormat.parse(translations.get(key + "short"));
+            }
+        }
+    }
+
+    /**
+     * A unit name, split either side of the amount.
+     */
+    private static final class UnitFormat {
+        private static final String ARGUMENT = "{0}";
+
+        /**
+         * Parses a unit name from a MessageFormat pattern, e.g. {@code {0} years}.
+         *
+         * @param translation the pattern
+         * @return the unit name, or null if the pattern doesn't include the amount
+         */
+        static UnitFormat parse(String translation) {
+            int index = translation.indexOf(ARGUMENT);
+            if (index == -1) {
+                return null;
+            }
+            return new UnitFormat(
+                    unquote(translation.substring(0, index)),
+                    unquote(translation.substring(index + ARGUMENT.length()))
+            );
+        }
+
+        // MessageFormat escapes single quotes by doubling them
+        private static String unquote(String text) {
+            return text.replace("''", "'");
+        }
+
+        private final String prefix;
+        private final String suffix;
+
+        private UnitFormat(String prefix, String suffix) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
     }
 
-}
\ No newline at end of file
+}
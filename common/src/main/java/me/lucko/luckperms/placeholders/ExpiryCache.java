@@ -0,0 +1,183 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.model.user.User;
+import net.luckperms.api.query.QueryOptions;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches the results of an expiry time placeholder.
+ *
+ * <p>The resolved expiry {@link Instant} is cached per user, query options and
+ * argument, and is only resolved again when the LuckPerms data changes or the
+ * node expires. The formatted duration is only recomputed when the rendered text
+ * would change - i.e. when the number of remaining seconds changes.</p>
+ *
+ * <p>An entry whose node has expired is resolved again the next time it is read.
+ * Entries are otherwise only dropped when the data changes, or when the user has
+ * too many, so there's nothing left to clean up when they're discarded.</p>
+ */
+final class ExpiryCache implements DataChangeListener {
+
+    /**
+     * The maximum number of entries cached for a single user, before they are all dropped.
+     */
+    private static final int MAX_ENTRIES_PER_USER = 256;
+
+    private final Resolver resolver;
+    private final DurationFormatter formatter;
+    private final Map<UUID, UserEntries> users = new ConcurrentHashMap<>();
+
+    ExpiryCache(Resolver resolver, DurationFormatter formatter) {
+        this.resolver = resolver;
+        this.formatter = formatter;
+    }
+
+    /**
+     * Gets the formatted time until expiry.
+     *
+     * @param user the user
+     * @param queryOptions the query options
+     * @param argument the placeholder argument
+     * @return the formatted duration, or an empty string if nothing matched
+     */
+    public String get(User user, QueryOptions queryOptions, String argument) {
+        long now = System.currentTimeMillis();
+
+        // obtain the entries before resolving, so a concurrent invalidation causes
+        // the (possibly stale) result to be written to a discarded instance
+        UserEntries userEntries = this.users.computeIfAbsent(user.getUniqueId(), x -> new UserEntries());
+        Map<String, Entry> entries = userEntries.entries(queryOptions);
+
+        Entry entry = entries.get(argument);
+        if (entry == null || entry.hasExpired(now)) {
+            Instant expiry = this.resolver.resolve(user, queryOptions, argument);
+            entry = new Entry(expiry == null ? -1 : expiry.toEpochMilli());
+            if (entries.put(argument, entry) == null) {
+                userEntries.onPut();
+            }
+        }
+
+        return entry.render(now, this.formatter);
+    }
+
+    @Override
+    public void onUserDataChange(UUID uniqueId) {
+        this.users.remove(uniqueId);
+    }
+
+    @Override
+    public void onGroupDataChange() {
+        this.users.clear();
+    }
+
+    @Override
+    public void onUserUnload(UUID uniqueId) {
+        this.users.remove(uniqueId);
+    }
+
+    /**
+     * Resolves the expiry time for an expiry placeholder.
+     */
+    @FunctionalInterface
+    interface Resolver {
+
+        /**
+         * Resolves the expiry time.
+         *
+         * @param user the user
+         * @param queryOptions the query options
+         * @param argument the placeholder argument
+         * @return the expiry time, or null if nothing matched
+         */
+        Instant resolve(User user, QueryOptions queryOptions, String argument);
+    }
+
+    /**
+     * The cached entries for a single user.
+     */
+    private static final class UserEntries {
+        private final Map<QueryOptions, Map<String, Entry>> entries = new ConcurrentHashMap<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        Map<String, Entry> entries(QueryOptions queryOptions) {
+            return this.entries.computeIfAbsent(queryOptions, x -> new ConcurrentHashMap<>());
+        }
+
+        void onPut() {
+            if (this.size.incrementAndGet() > MAX_ENTRIES_PER_USER) {
+                this.size.set(0);
+                this.entries.clear();
+            }
+        }
+    }
+
+    /**
+     * A resolved expiry time, and the last text rendered from it.
+     */
+    private static final class Entry {
+        private final long expiry;
+        private volatile Rendered rendered;
+
+        Entry(long expiry) {
+            this.expiry = expiry;
+        }
+
+        boolean hasExpired(long now) {
+            return this.expiry != -1 && now > this.expiry;
+        }
+
+        String render(long now, DurationFormatter formatter) {
+            if (this.expiry == -1) {
+                return "";
+            }
+
+            long seconds = Math.max(0, (this.expiry - now) / 1000);
+            Rendered rendered = this.rendered;
+            if (rendered == null || rendered.seconds != seconds) {
+                rendered = new Rendered(seconds, formatter.format(seconds));
+                this.rendered = rendered;
+            }
+            return rendered.text;
+        }
+    }
+
+    private static final class Rendered {
+        private final long seconds;
+        private final String text;
+
+        Rendered(long seconds, String text) {
+            this.seconds = seconds;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.model.group.Group;
+import net.luckperms.api.model.group.GroupManager;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.OptionalInt;
+
+/**
+ * An immutable snapshot of the display name and weight of every loaded group.
+ *
+ * <p>The snapshot is built lazily, and replaced as a whole when any group is
+ * created, deleted, loaded or recalculated.</p>
+ */
+final class GroupIndex implements DataChangeListener {
+    private final GroupManager groupManager;
+    private volatile Snapshot snapshot = new Snapshot();
+
+    GroupIndex(GroupManager groupManager) {
+        this.groupManager = groupManager;
+    }
+
+    /**
+     * Gets the indexed group with the given name.
+     *
+     * @param name the group name
+     * @return the group, or null if it isn't loaded
+     */
+    public IndexedGroup getGroup(String name) {
+        Map<String, IndexedGroup> groups = getGroups();
+        IndexedGroup group = groups.get(name);
+        if (group == null) {
+            group = groups.get(name.toLowerCase(Locale.ROOT));
+        }
+        return group;
+    }
+
+    /**
+     * Gets the display name of a group, or the name itself if the group isn't loaded.
+     *
+     * @param name the group name
+     * @return the display name, or null if the name is null
+     */
+    public String getDisplayName(String name) {
+        if (name == null) {
+            return null;
+        }
+
+        IndexedGroup group = getGroup(name);
+        return group == null ? name : group.getDisplayName();
+    }
+
+    /**
+     * Gets the indexed equivalent of a group.
+     *
+     * @param group the group
+     * @return the indexed group
+     */
+    public IndexedGroup getGroup(Group group) {
+        IndexedGroup indexed = getGroups().get(group.getName());
+        return indexed != null ? indexed : new IndexedGroup(group);
+    }
+
+    private Map<String, IndexedGroup> getGroups() {
+        // obtain the snapshot before building, so a concurrent invalidation
+        // causes the (possibly stale) result to be written to a discarded instance
+        Snapshot snapshot = this.snapshot;
+        Map<String, IndexedGroup> groups = snapshot.groups;
+        if (groups == null) {
+            groups = new HashMap<>();
+            for (Group group : this.groupManager.getLoadedGroups()) {
+                groups.put(group.getName(), new IndexedGroup(group));
+            }
+            snapshot.groups = groups;
+        }
+        return groups;
+    }
+
+    @Override
+    public void onGroupDataChange() {
+        this.snapshot = new Snapshot();
+    }
+
+    private static final class Snapshot {
+        private volatile Map<String, IndexedGroup> groups;
+    }
+
+    /**
+     * An immutable view of a {@link Group}.
+     */
+    static final class IndexedGroup {
+        private final String name;
+        private final String displayName;
+        private final OptionalInt weight;
+
+        IndexedGroup(Group group) {
+            this.name = group.getName();
+            this.displayName = group.getFriendlyName();
+            this.weight = group.getWeight();
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * Gets the display name of the group, or its name if it doesn't have one.
+         *
+         * @return the display name
+         */
+        public String getDisplayName() {
+            return this.displayName;
+        }
+
+        public OptionalInt getWeight() {
+            return this.weight;
+        }
+    }
+}
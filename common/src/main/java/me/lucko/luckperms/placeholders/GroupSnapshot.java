@@ -0,0 +1,251 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.model.group.Group;
+import net.luckperms.api.model.user.User;
+import net.luckperms.api.node.NodeType;
+import net.luckperms.api.node.types.InheritanceNode;
+import net.luckperms.api.query.QueryOptions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the groups a user is a member of, for a given set of
+ * {@link QueryOptions}.
+ *
+ * <p>Everything the group placeholders need is computed up front, so reading
+ * from the snapshot doesn't touch the user's nodes or the {@code GroupManager}.</p>
+ */
+final class GroupSnapshot {
+
+    /**
+     * Builds a snapshot for the given user.
+     *
+     * @param user the user
+     * @param queryOptions the query options
+     * @param groupIndex the group index
+     * @return the snapshot
+     */
+    static GroupSnapshot build(User user, QueryOptions queryOptions, GroupIndex groupIndex) {
+        List<String> directNames = new ArrayList<>();
+        List<String> directDisplayNames = new ArrayList<>();
+        List<GroupIndex.IndexedGroup> directGroups = new ArrayList<>();
+
+        for (InheritanceNode node : user.getNodes(NodeType.INHERITANCE)) {
+            if (!queryOptions.satisfies(node.getContexts())) {
+                continue;
+            }
+
+            String name = node.getGroupName();
+            GroupIndex.IndexedGroup group = groupIndex.getGroup(name);
+
+            directNames.add(name);
+            directDisplayNames.add(group != null ? group.getDisplayName() : name);
+            if (group != null) {
+                directGroups.add(group);
+            }
+        }
+
+        Collection<Group> userInheritedGroups = user.getInheritedGroups(queryOptions);
+        List<GroupIndex.IndexedGroup> inheritedGroups = new ArrayList<>(userInheritedGroups.size());
+        List<String> inheritedNames = new ArrayList<>(userInheritedGroups.size());
+        List<String> inheritedDisplayNames = new ArrayList<>(userInheritedGroups.size());
+        for (Group userInheritedGroup : userInheritedGroups) {
+            GroupIndex.IndexedGroup group = groupIndex.getGroup(userInheritedGroup);
+            inheritedGroups.add(group);
+            inheritedNames.add(group.getName());
+            inheritedDisplayNames.add(group.getDisplayName());
+        }
+
+        GroupIndex.IndexedGroup highest = highest(directGroups);
+        GroupIndex.IndexedGroup lowest = lowest(directGroups);
+        GroupIndex.IndexedGroup highestInherited = highest(inheritedGroups);
+        GroupIndex.IndexedGroup lowestInherited = lowest(inheritedGroups);
+
+        int highestWeight = 0;
+        boolean hasWeight = false;
+        for (GroupIndex.IndexedGroup group : directGroups) {
+            if (group.getWeight().isPresent()) {
+                int weight = group.getWeight().getAsInt();
+                highestWeight = hasWeight ? Math.max(highestWeight, weight) : weight;
+                hasWeight = true;
+            }
+        }
+
+        return new GroupSnapshot(
+                Collections.unmodifiableList(directNames),
+                lowercaseSet(directNames),
+                String.join(", ", directDisplayNames),
+                Collections.unmodifiableList(inheritedNames),
+                lowercaseSet(inheritedNames),
+                String.join(", ", inheritedDisplayNames),
+                highest == null ? "" : highest.getDisplayName(),
+                lowest == null ? "" : lowest.getDisplayName(),
+                highestInherited == null ? "" : highestInherited.getDisplayName(),
+                lowestInherited == null ? "" : lowestInherited.getDisplayName(),
+                highestWeight
+        );
+    }
+
+    private final List<String> directGroups;
+    private final Set<String> directGroupsLowercase;
+    private final String directGroupsJoined;
+    private final List<String> inheritedGroups;
+    private final Set<String> inheritedGroupsLowercase;
+    private final String inheritedGroupsJoined;
+    private final String highestGroup;
+    private final String lowestGroup;
+    private final String highestInheritedGroup;
+    private final String lowestInheritedGroup;
+    private final int highestGroupWeight;
+
+    private GroupSnapshot(List<String> directGroups, Set<String> directGroupsLowercase, String directGroupsJoined, List<String> inheritedGroups, Set<String> inheritedGroupsLowercase, String inheritedGroupsJoined, String highestGroup, String lowestGroup, String highestInheritedGroup, String lowestInheritedGroup, int highestGroupWeight) {
+        this.directGroups = directGroups;
+        this.directGroupsLowercase = directGroupsLowercase;
+        this.directGroupsJoined = directGroupsJoined;
+        this.inheritedGroups = inheritedGroups;
+        this.inheritedGroupsLowercase = inheritedGroupsLowercase;
+        this.inheritedGroupsJoined = inheritedGroupsJoined;
+        this.highestGroup = highestGroup;
+        this.lowestGroup = lowestGroup;
+        this.highestInheritedGroup = highestInheritedGroup;
+        this.lowestInheritedGroup = lowestInheritedGroup;
+        this.highestGroupWeight = highestGroupWeight;
+    }
+
+    /**
+     * Gets the names of the groups the user directly inherits, in node order.
+     *
+     * @return the direct group names
+     */
+    public List<String> getDirectGroups() {
+        return this.directGroups;
+    }
+
+    /**
+     * Gets if the user directly inherits the given group.
+     *
+     * @param groupName the group name, in any case
+     * @return if the group is directly inherited
+     */
+    public boolean hasDirectGroup(String groupName) {
+        return this.directGroupsLowercase.contains(groupName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets the display names of the groups the user directly inherits, joined with ", ".
+     *
+     * @return the joined display names
+     */
+    public String getDirectGroupsJoined() {
+        return this.directGroupsJoined;
+    }
+
+    /**
+     * Gets the names of all groups the user inherits, in resolution order.
+     *
+     * @return the inherited group names
+     */
+    public List<String> getInheritedGroups() {
+        return this.inheritedGroups;
+    }
+
+    /**
+     * Gets if the user inherits the given group.
+     *
+     * @param groupName the group name, in any case
+     * @return if the group is inherited
+     */
+    public boolean hasInheritedGroup(String groupName) {
+        return this.inheritedGroupsLowercase.contains(groupName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets the display names of all groups the user inherits, joined with ", ".
+     *
+     * @return the joined display names
+     */
+    public String getInheritedGroupsJoined() {
+        return this.inheritedGroupsJoined;
+    }
+
+    public String getHighestGroup() {
+        return this.highestGroup;
+    }
+
+    public String getLowestGroup() {
+        return this.lowestGroup;
+    }
+
+    public String getHighestInheritedGroup() {
+        return this.highestInheritedGroup;
+    }
+
+    public String getLowestInheritedGroup() {
+        return this.lowestInheritedGroup;
+    }
+
+    public int getHighestGroupWeight() {
+        return this.highestGroupWeight;
+    }
+
+    // the first group wins when weights are equal, matching Stream#max and Stream#min
+
+    private static GroupIndex.IndexedGroup highest(List<GroupIndex.IndexedGroup> groups) {
+        GroupIndex.IndexedGroup highest = null;
+        for (GroupIndex.IndexedGroup group : groups) {
+            if (highest == null || group.getWeight().orElse(0) > highest.getWeight().orElse(0)) {
+                highest = group;
+            }
+        }
+        return highest;
+    }
+
+    private static GroupIndex.IndexedGroup lowest(List<GroupIndex.IndexedGroup> groups) {
+        GroupIndex.IndexedGroup lowest = null;
+        for (GroupIndex.IndexedGroup group : groups) {
+            if (lowest == null || group.getWeight().orElse(0) < lowest.getWeight().orElse(0)) {
+                lowest = group;
+            }
+        }
+        return lowest;
+    }
+
+    private static Set<String> lowercaseSet(List<String> names) {
+        Set<String> set = new HashSet<>(names.size());
+        for (String name : names) {
+            set.add(name.toLowerCase(Locale.ROOT));
+        }
+        return Collections.unmodifiableSet(set);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import java.util.function.Function;
+
+/**
+ * A table of compiled placeholders, which can be looked up by a region of any
+ * {@link CharSequence} without allocating.
+ *
+ * <p>Lookups are case sensitive, as the arguments of some placeholders are (e.g.
+ * the spacers in a stack definition). Placeholders which only differ in case are
+ * compiled separately, and the compiler matches their ids ignoring case.</p>
+ *
+ * <p>Unknown placeholders are remembered too, so they aren't compiled again.</p>
+ *
+ * <p>Lookups read an immutable array of slots (linear probing). Insertions copy the
+ * array, and are synchronized - they only happen the first time each distinct
+ * placeholder is requested.</p>
+ */
+final class HandleTable {
+
+    /**
+     * The maximum number of placeholders to hold, before the table is cleared.
+     * Stops unbounded dynamic arguments from using too much memory.
+     */
+    private final int maxSize;
+    private final Function<String, PlaceholderHandle> compiler;
+
+    private volatile Slot[] slots;
+    private int size;
+
+    /**
+     * Creates a new table.
+     *
+     * @param maxSize the maximum number of placeholders to hold
+     * @param compiler the function used to compile placeholders,
+     *                 returning null if the placeholder is unknown
+     */
+    HandleTable(int maxSize, Function<String, PlaceholderHandle> compiler) {
+        this.maxSize = maxSize;
+        this.compiler = compiler;
+        this.slots = new Slot[tableSize(maxSize)];
+    }
+
+    /**
+     * Gets the handle for a placeholder, compiling it if it isn't in the table.
+     *
+     * @param placeholder the text containing the placeholder
+     * @param start the index the placeholder starts at
+     * @param end the index the placeholder ends at (exclusive)
+     * @return the handle, or null if the placeholder is unknown
+     */
+    public PlaceholderHandle get(CharSequence placeholder, int start, int end) {
+        int hash = hash(placeholder, start, end);
+
+        Slot[] slots = this.slots;
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Slot slot = slots[i];
+            if (slot == null) {
+                break;
+            }
+            if (slot.hash == hash && slot.matches(placeholder, start, end)) {
+                return slot.handle;
+            }
+        }
+
+        String key = placeholder.subSequence(start, end).toString();
+        PlaceholderHandle handle = this.compiler.apply(key);
+        insert(new Slot(key, hash, handle));
+        return handle;
+    }
+
+    private synchronized void insert(Slot slot) {
+        Slot[] slots;
+        if (this.size >= this.maxSize) {
+            slots = new Slot[this.slots.length];
+            this.size = 0;
+        } else {
+            slots = this.slots.clone();
+        }
+
+        int mask = slots.length - 1;
+        for (int i = slot.hash & mask; ; i = (i + 1) & mask) {
+            Slot existing = slots[i];
+            if (existing == null) {
+                slots[i] = slot;
+                this.size++;
+                break;
+            }
+            if (existing.hash == slot.hash && existing.key.equals(slot.key)) {
+                // inserted by a racing thread
+                return;
+            }
+        }
+        this.slots = slots;
+    }
+
+    /**
+     * Gets a power of two table size, which keeps the load factor at or below 0.5.
+     */
+    private static int tableSize(int maxSize) {
+        return Integer.highestOneBit(Math.max(maxSize, 1) * 2 - 1) << 1;
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        // spread the bits, as the table index only uses the lowest ones
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Slot {
+        private final String key;
+        private final int hash;
+        private final PlaceholderHandle handle;
+
+        Slot(String key, int hash, PlaceholderHandle handle) {
+            this.key = key;
+            this.hash = hash;
+            this.handle = handle;
+        }
+
+        boolean matches(CharSequence text, int start, int end) {
+            String key = this.key;
+            if (key.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length(); i++) {
+                if (key.charAt(i) != text.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
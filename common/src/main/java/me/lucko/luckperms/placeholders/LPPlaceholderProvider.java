@@ -27,38 +27,44 @@ package me.lucko.luckperms.placeholders;
 
 import net.luckperms.api.LuckPerms;
 import net.luckperms.api.cacheddata.CachedDataManager;
-import net.luckperms.api.metastacking.DuplicateRemovalFunction;
-import net.luckperms.api.metastacking.MetaStackDefinition;
-import net.luckperms.api.metastacking.MetaStackElement;
-import net.luckperms.api.model.group.Group;
 import net.luckperms.api.model.user.User;
 import net.luckperms.api.node.Node;
 import net.luckperms.api.node.NodeType;
 import net.luckperms.api.node.types.InheritanceNode;
 import net.luckperms.api.query.QueryOptions;
-import net.luckperms.api.track.Track;
 
-import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.OptionalInt;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Provides LuckPerms placeholders using the {@link LuckPerms} API.
  */
 public class LPPlaceholderProvider implements PlaceholderProvider {
 
+    /**
+     * The maximum number of compiled placeholders to keep for {@link #onPlaceholderRequest(Object, UUID, CharSequence, int, int)}
+     */
+    private static final int MAX_CACHED_HANDLES = 1024;
+
+    /**
+     * The prefix added to the ids of relational placeholders in metrics, to tell
+     * them apart from the regular placeholders
+     */
+    private static final String RELATIONAL_PREFIX = "rel_";
+
     /**
      * The platform this provider is "providing" placeholders for.
      */
@@ -72,16 +78,144 @@ public class LPPlaceholderProvider implements PlaceholderProvider {
     /**
      * The internal placeholders being "provided"
      */
-    private final Map<String, Placeholder> placeholders;
+    private final PlaceholderDispatcher placeholders;
+
+    /**
+     * The relational placeholders being "provided"
+     */
+    private final PlaceholderDispatcher relationalPlaceholders;
+
+    /**
+     * Notifies caches when the LuckPerms data they depend on changes
+     */
+    private final DataChangeNotifier notifier;
+
+    /**
+     * Caches meta stack definitions used by the element and stack placeholders
+     */
+    private final MetaStackCache metaStacks;
+
+    /**
+     * A snapshot of the display name and weight of every group
+     */
+    private final GroupIndex groups;
+
+    /**
+     * Caches data derived from users
+     */
+    private final UserDataCache userData;
+
+    /**
+     * Indexes the groups on each track
+     */
+    private final TrackIndex tracks;
+
+    /**
+     * Caches a snapshot of each player's contexts
+     */
+    private final ContextCache contexts;
+
+    /**
+     * Counts the online players in each group and on each track
+     */
+    private final AggregateIndex aggregates;
+
+    /**
+     * Loads and caches users for offline players
+     */
+    private final OfflineUserCache offlineUsers;
+
+    /**
+     * Caches placeholder results
+     */
+    private final PlaceholderCache cache = new PlaceholderCache();
+
+    /**
+     * Caches relational placeholder results
+     */
+    private final RelationalCache relationalCache = new RelationalCache();
+
+    /**
+     * Persists computed values so they can be served after a restart, or null if disabled
+     */
+    private final SnapshotStore snapshot = SnapshotStore.open();
+
+    /**
+     * Formats the remaining time for the expiry placeholders
+     */
+    private final DurationFormatter expiryFormatter = new DurationFormatter(true, Integer.MAX_VALUE, DurationFormatter.UnitNames.load());
+
+    /**
+     * Pushes changes to placeholder values to subscribers
+     */
+    private final SubscriptionManager subscriptions = new SubscriptionManager(this);
+
+    /**
+     * Records request metrics for each placeholder
+     */
+    private final PlaceholderMetrics metrics;
+
+    /**
+     * Computes frequently requested placeholders in the background
+     */
+    private final PlaceholderPrewarmer prewarmer = new PlaceholderPrewarmer(this);
+
+    /**
+     * Caches compiled placeholders, keyed by the placeholder requested
+     */
+    private final HandleTable handles = new HandleTable(MAX_CACHED_HANDLES, this::compile);
+
+    /**
+     * Caches compiled relational placeholders, keyed by the placeholder requested.
+     * These handles are only used internally, and can't be evaluated for a single player
+     */
+    private final HandleTable relationalHandles = new HandleTable(MAX_CACHED_HANDLES, this::compileRelational);
 
     public LPPlaceholderProvider(PlaceholderPlatform platform, LuckPerms luckPerms) {
         this.platform = platform;
         this.luckPerms = luckPerms;
-        
+        this.metaStacks = new MetaStackCache(luckPerms.getMetaStackFactory());
+        this.groups = new GroupIndex(luckPerms.getGroupManager());
+        this.userData = new UserDataCache(this.groups);
+        this.tracks = new TrackIndex(luckPerms.getTrackManager());
+        this.contexts = new ContextCache(platform, luckPerms.getContextManager());
+        this.offlineUsers = new OfflineUserCache(luckPerms.getUserManager());
+        this.aggregates = new AggregateIndex(platform, luckPerms);
+
+        // listen for data changes - derived data must be invalidated before
+        // the placeholder results computed from it
+        this.notifier = new DataChangeNotifier(platform, luckPerms);
+        this.notifier.addListener(this.groups);
+        this.notifier.addListener(this.userData);
+        this.notifier.addListener(this.tracks);
+        this.notifier.addListener(this.contexts);
+        this.notifier.addListener(this.offlineUsers);
+        this.notifier.addListener(this.aggregates);
+
         // register placeholders
-        PlaceholderBuilder builder = new PlaceholderBuilder();
+        PlaceholderBuilder builder = new PlaceholderBuilder("");
         setup(builder);
         this.placeholders = builder.build();
+
+        PlaceholderBuilder relationalBuilder = new PlaceholderBuilder(RELATIONAL_PREFIX);
+        setupRelational(relationalBuilder);
+        this.relationalPlaceholders = relationalBuilder.build();
+
+        List<String> metricIds = new ArrayList<>(this.placeholders.getPlaceholders().keySet());
+        for (String id : this.relationalPlaceholders.getPlaceholders().keySet()) {
+            metricIds.add(RELATIONAL_PREFIX + id);
+        }
+        this.metrics = new PlaceholderMetrics(metricIds);
+        this.metrics.register();
+
+        this.notifier.addListener(this.cache);
+        this.notifier.addListener(this.relationalCache);
+        this.notifier.addListener(this.prewarmer);
+        this.notifier.addListener(this.subscriptions);
+        this.notifier.register();
+
+        // count players who are already online, now that changes won't be missed
+        this.aggregates.init();
     }
 
     private void setup(PlaceholderBuilder builder) {
@@ -89,7 +223,7 @@ public class LPPlaceholderProvider implements PlaceholderProvider {
 
         builder.addStatic("suffix", (player, user, userData, queryOptions) -> Objects.toString(userData.getMetaData(queryOptions).getSuffix(), ""));
 
-        // meta_all needs to go before meta because they both share the same prefix
+        // meta_all and meta share the same prefix - the dispatcher prefers the longest match
         builder.addDynamic("meta_all", (player, user, userData, queryOptions, node) -> {
             List<String> values = userData.getMetaData(queryOptions).getMeta().getOrDefault(node, List.of());
             return values.isEmpty() ? "" : String.join(", ", values);
@@ -100,67 +234,58 @@ public class LPPlaceholderProvider implements PlaceholderProvider {
             return value == null ? "" : value;
         });
 
-        builder.addDynamic("prefix_element", (player, user, userData, queryOptions, element) -> {
-            MetaStackElement stackElement = this.luckPerms.getMetaStackFactory().fromString(element).orElse(null);
-            if (stackElement == null) {
+        builder.addDynamic("prefix_element", ParsedDynamicPlaceholder.of(this.metaStacks::getElementDefinition, (player, user, userData, queryOptions, stackDefinition) -> {
+            if (stackDefinition == null) {
                 return "ERROR: Invalid element!";
             }
 
-            MetaStackDefinition stackDefinition = this.luckPerms.getMetaStackFactory().createDefinition(List.of(stackElement), DuplicateRemovalFunction.RETAIN_ALL, "", "", "");
-            QueryOptions newOptions = queryOptions.toBuilder()
-                    .option(MetaStackDefinition.PREFIX_STACK_KEY, stackDefinition)
-                    .option(MetaStackDefinition.SUFFIX_STACK_KEY, stackDefinition)
-                    .build();
+            QueryOptions newOptions = this.metaStacks.getQueryOptions(queryOptions, stackDefinition);
+            return Objects.toString(userData.getMetaData(newOptions).getPrefix(), "");
+        }));
+
+        builder.addDynamic("prefix_stack", ParsedDynamicPlaceholder.of(this.metaStacks::getStackDefinition, (player, user, userData, queryOptions, stackDefinition) -> {
+            if (stackDefinition == null) {
+                return "ERROR: Invalid stack!";
+            }
 
+            QueryOptions newOptions = this.metaStacks.getQueryOptions(queryOptions, stackDefinition);
             return Objects.toString(userData.getMetaData(newOptions).getPrefix(), "");
-        });
+        }));
 
-        builder.addDynamic("suffix_element", (player, user, userData, queryOptions, element) -> {
-            MetaStackElement stackElement = this.luckPerms.getMetaStackFactory().fromString(element).orElse(null);
-            if (stackElement == null) {
+        builder.addDynamic("suffix_element", ParsedDynamicPlaceholder.of(this.metaStacks::getElementDefinition, (player, user, userData, queryOptions, stackDefinition) -> {
+            if (stackDefinition == null) {
                 return "ERROR: Invalid element!";
             }
 
-            MetaStackDefinition stackDefinition = this.luckPerms.getMetaStackFactory().createDefinition(List.of(stackElement), DuplicateRemovalFunction.RETAIN_ALL, "", "", "");
-            QueryOptions newOptions = queryOptions.toBuilder()
-                    .option(MetaStackDefinition.PREFIX_STACK_KEY, stackDefinition)
-                    .option(MetaStackDefinition.SUFFIX_STACK_KEY, stackDefinition)
-                    .build();
+            QueryOptions newOptions = this.metaStacks.getQueryOptions(queryOptions, stackDefinition);
+            return Objects.toString(userData.getMetaData(newOptions).getSuffix(), "");
+        }));
+
+        builder.addDynamic("suffix_stack", ParsedDynamicPlaceholder.of(this.metaStacks::getStackDefinition, (player, user, userData, queryOptions, stackDefinition) -> {
+            if (stackDefinition == null) {
+                return "ERROR: Invalid stack!";
+            }
 
+            QueryOptions newOptions = this.metaStacks.getQueryOptions(queryOptions, stackDefinition);
             return Objects.toString(userData.getMetaData(newOptions).getSuffix(), "");
-        });
+        }));
 
-        builder.addStatic("context", (player, user, userData, queryOptions) ->
-                this.luckPerms.getContextManager().getContext(player).toSet().stream()
-                        .map(c -> c.getKey() + "=" + c.getValue())
-                        .collect(Collectors.joining(", "))
-        );
-        builder.addDynamic("context", (player, user, userData, queryOptions, key) ->
-                String.join(", ", this.luckPerms.getContextManager().getContext(player).getValues(key))
-        );
+        builder.addStatic("context", (player, user, userData, queryOptions) -> this.contexts.get(user.getUniqueId(), queryOptions).getJoined());
+        builder.addDynamic("context", (player, user, userData, queryOptions, key) -> this.contexts.get(user.getUniqueId(), queryOptions).getValues(key));
 
         builder.addStatic("groups", (player, user, userData, queryOptions) ->
-                user.getNodes(NodeType.INHERITANCE)
-                        .stream()
-                        .filter(n -> queryOptions.satisfies(n.getContexts()))
-                        .map(InheritanceNode::getGroupName)
-                        .map(this::convertGroupDisplayName)
-                        .collect(Collectors.joining(", "))
+                this.userData.getGroups(user, queryOptions).getDirectGroupsJoined()
         );
 
         builder.addStatic("inherited_groups", (player, user, userData, queryOptions) ->
-                user.getInheritedGroups(queryOptions)
-                        .stream()
-                        .map(Group::getFriendlyName)
-                        .collect(Collectors.joining(", "))
+                this.userData.getGroups(user, queryOptions).getInheritedGroupsJoined()
         );
 
         builder.addStatic("primary_group_name", (player, user, userData, queryOptions) -> convertGroupDisplayName(user.getPrimaryGroup()));
 
         builder.addDynamic("has_permission", (player, user, userData, queryOptions, node) ->
-                user.getNodes().stream()
-                        .filter(n -> queryOptions.satisfies(n.getContexts()))
-                        .anyMatch(n -> n.getKey().equals(node))
+                this.userData.getNodes(user).getNodes(node).stream()
+                        .anyMatch(n -> queryOptions.satisfies(n.getContexts()))
         );
 
         builder.addDynamic("inherits_permission", (player, user, userData, queryOptions, node) ->
@@ -172,300 +297,731 @@ public class LPPlaceholderProvider implements PlaceholderProvider {
         builder.addDynamic("check_permission", (player, user, userData, queryOptions, node) -> user.getCachedData().getPermissionData(queryOptions).checkPermission(node).asBoolean());
 
         builder.addDynamic("in_group", (player, user, userData, queryOptions, groupName) ->
-                user.getNodes(NodeType.INHERITANCE).stream()
-                        .filter(n -> queryOptions.satisfies(n.getContexts()))
-                        .map(InheritanceNode::getGroupName)
-                        .anyMatch(s -> s.equalsIgnoreCase(groupName))
+                this.userData.getGroups(user, queryOptions).hasDirectGroup(groupName)
         );
 
         builder.addDynamic("inherits_group", (player, user, userData, queryOptions, groupName) ->
-                user.getInheritedGroups(queryOptions)
-                        .stream()
-                        .anyMatch(g -> g.getName().equalsIgnoreCase(groupName))
+                this.userData.getGroups(user, queryOptions).hasInheritedGroup(groupName)
         );
 
-        builder.addDynamic("on_track", (player, user, userData, queryOptions, trackName) ->
-                Optional.ofNullable(this.luckPerms.getTrackManager().getTrack(trackName))
-                        .map(t -> t.containsGroup(user.getPrimaryGroup()))
-                        .orElse(false)
-        );
+        builder.addDynamic("on_track", (player, user, userData, queryOptions, trackName) -> {
+            TrackIndex.IndexedTrack track = this.tracks.getTrack(trackName);
+            return track != null && track.containsGroup(user.getPrimaryGroup());
+        });
 
-        builder.addDynamic("has_groups_on_track", (player, user, userData, queryOptions, trackName) ->
-                Optional.ofNullable(this.luckPerms.getTrackManager().getTrack(trackName))
-                        .map(t -> user.getNodes(NodeType.INHERITANCE).stream()
-                                .map(InheritanceNode::getGroupName)
-                                .anyMatch(t::containsGroup)
-                        )
-                .orElse(false)
-        );
+        builder.addDynamic("has_groups_on_track", (player, user, userData, queryOptions, trackName) -> {
+            TrackIndex.IndexedTrack track = this.tracks.getTrack(trackName);
+            return track != null && user.getNodes(NodeType.INHERITANCE).stream()
+                    .map(InheritanceNode::getGroupName)
+                    .anyMatch(track::containsGroup);
+        });
 
         builder.addStatic("highest_group_by_weight", (player, user, userData, queryOptions) ->
-                user.getNodes(NodeType.INHERITANCE).stream()
-                        .filter(n -> queryOptions.satisfies(n.getContexts()))
-                        .map(InheritanceNode::getGroupName)
-                        .map(n -> this.luckPerms.getGroupManager().getGroup(n))
-                        .filter(Objects::nonNull)
-                        .max(Comparator.comparingInt(g -> g.getWeight().orElse(0)))
-                        .map(Group::getName)
-                        .map(this::convertGroupDisplayName)
-                        .orElse("")
+                this.userData.getGroups(user, queryOptions).getHighestGroup()
         );
 
         builder.addStatic("lowest_group_by_weight", (player, user, userData, queryOptions) ->
-                user.getNodes(NodeType.INHERITANCE).stream()
-                        .filter(n -> queryOptions.satisfies(n.getContexts()))
-                        .map(InheritanceNode::getGroupName)
-                        .map(n -> this.luckPerms.getGroupManager().getGroup(n))
-                        .filter(Objects::nonNull)
-                        .min(Comparator.comparingInt(g -> g.getWeight().orElse(0)))
-                        .map(Group::getName)
-                        .map(this::convertGroupDisplayName)
-                        .orElse("")
+                this.userData.getGroups(user, queryOptions).getLowestGroup()
         );
 
         builder.addStatic("highest_inherited_group_by_weight", (player, user, userData, queryOptions) ->
-                user.getInheritedGroups(queryOptions).stream()
-                        .max(Comparator.comparingInt(g -> g.getWeight().orElse(0)))
-                        .map(Group::getName)
-                        .map(this::convertGroupDisplayName)
-                        .orElse("")
+                this.userData.getGroups(user, queryOptions).getHighestInheritedGroup()
         );
 
         builder.addStatic("lowest_inherited_group_by_weight", (player, user, userData, queryOptions) ->
-                user.getInheritedGroups(queryOptions).stream()
-                        .min(Comparator.comparingInt(g -> g.getWeight().orElse(0)))
-                        .map(Group::getName)
-                        .map(this::convertGroupDisplayName)
-                        .orElse("")
+                this.userData.getGroups(user, queryOptions).getLowestInheritedGroup()
         );
 
         builder.addStatic("highest_group_weight", (player, user, userData, queryOptions) ->
-                user.getNodes(NodeType.INHERITANCE).stream()
-                        .filter(n -> queryOptions.satisfies(n.getContexts()))
-                        .map(InheritanceNode::getGroupName)
-                        .map(n -> this.luckPerms.getGroupManager().getGroup(n))
-                        .filter(Objects::nonNull)
-                        .map(Group::getWeight)
-                        .filter(OptionalInt::isPresent)
-                        .mapToInt(OptionalInt::getAsInt)
-                        .max()
-                        .orElse(0)
+                this.userData.getGroups(user, queryOptions).getHighestGroupWeight()
         );
 
         builder.addDynamic("current_group_on_track", (player, user, userData, queryOptions, trackName) -> {
-            Track track = this.luckPerms.getTrackManager().getTrack(trackName);
+            TrackIndex.IndexedTrack track = this.tracks.getTrack(trackName);
             if (track == null) {
                 return "";
             }
 
-            List<Group> groups = user.getNodes(NodeType.INHERITANCE).stream()
-                    .filter(n -> track.containsGroup(n.getGroupName()))
-                    .filter(n -> queryOptions.satisfies(n.getContexts()))
-                    .distinct()
-                    .map(n -> this.luckPerms.getGroupManager().getGroup(n.getGroupName()))
-                    .collect(Collectors.toList());
-
-            if (groups.size() != 1) {
-                return "";
-            }
-
-            return groups.get(0).getFriendlyName();
+            String group = getGroupOnTrack(track, this.userData.getGroups(user, queryOptions));
+            return group == null ? "" : convertGroupDisplayName(group);
         });
 
         builder.addDynamic("next_group_on_track", (player, user, userData, queryOptions, trackName) -> {
-            Track track = this.luckPerms.getTrackManager().getTrack(trackName);
+            TrackIndex.IndexedTrack track = this.tracks.getTrack(trackName);
             if (track == null || track.getGroups().size() <= 1) {
                 return "";
             }
 
-            List<Group> groups = user.getNodes(NodeType.INHERITANCE).stream()
-                    .filter(n -> track.containsGroup(n.getGroupName()))
-                    .filter(n -> queryOptions.satisfies(n.getContexts()))
-                    .distinct()
-                    .map(n -> this.luckPerms.getGroupManager().getGroup(n.getGroupName()))
-                    .collect(Collectors.toList());
-
-            if (groups.size() != 1) {
+            String group = getGroupOnTrack(track, this.userData.getGroups(user, queryOptions));
+            if (group == null) {
                 return "";
             }
 
-            return Objects.toString(convertGroupDisplayName(track.getNext(groups.get(0))), "");
+            return Objects.toString(convertGroupDisplayName(track.getNext(group)), "");
         });
 
         builder.addDynamic("previous_group_on_track", (player, user, userData, queryOptions, trackName) -> {
-            Track track = this.luckPerms.getTrackManager().getTrack(trackName);
+            TrackIndex.IndexedTrack track = this.tracks.getTrack(trackName);
             if (track == null || track.getGroups().size() <= 1) {
                 return "";
             }
 
-            List<Group> groups = user.getNodes(NodeType.INHERITANCE).stream()
-                    .filter(n -> track.containsGroup(n.getGroupName()))
-                    .filter(n -> queryOptions.satisfies(n.getContexts()))
-                    .distinct()
-                    .map(n -> this.luckPerms.getGroupManager().getGroup(n.getGroupName()))
-                    .collect(Collectors.toList());
-
-            if (groups.size() != 1) {
+            String group = getGroupOnTrack(track, this.userData.getGroups(user, queryOptions));
+            if (group == null) {
                 return "";
             }
 
-            return Objects.toString(convertGroupDisplayName(track.getPrevious(groups.get(0))), "");
+            return Objects.toString(convertGroupDisplayName(track.getPrevious(group)), "");
         });
 
-        builder.addDynamic("first_group_on_tracks", (player, user, userData, queryOptions, argument) -> {
-            List<String> tracks = Arrays.stream(argument.split(",")).map(String::trim).collect(Collectors.toList());
-            Set<String> groups = user.getInheritedGroups(queryOptions).stream().map(Group::getName).collect(Collectors.toSet());
-
-            return tracks.stream()
-                    .map(n -> this.luckPerms.getTrackManager().getTrack(n))
-                    .filter(Objects::nonNull)
-                    .map(Track::getGroups)
-                    .map(trackGroups -> trackGroups.stream().filter(groups::contains).findFirst())
-                    .filter(Optional::isPresent)
-                    .map(Optional::get)
-                    .findFirst()
-                    .map(this::convertGroupDisplayName)
-                    .orElse("");
-        });
+        builder.addDynamic("first_group_on_tracks", ParsedDynamicPlaceholder.of(LPPlaceholderProvider::parseList, (player, user, userData, queryOptions, tracks) -> {
+            GroupSnapshot groups = this.userData.getGroups(user, queryOptions);
+            for (String trackName : tracks) {
+                TrackIndex.IndexedTrack track = this.tracks.getTrack(trackName);
+                if (track == null) {
+                    continue;
+                }
 
-        builder.addDynamic("last_group_on_tracks", (player, user, userData, queryOptions, argument) -> {
-            List<String> tracks = Arrays.stream(argument.split(",")).map(String::trim).collect(Collectors.toList());
-            Set<String> groups = user.getInheritedGroups(queryOptions).stream().map(Group::getName).collect(Collectors.toSet());
-
-            return tracks.stream()
-                    .map(n -> this.luckPerms.getTrackManager().getTrack(n))
-                    .filter(Objects::nonNull)
-                    .map(Track::getGroups)
-                    .map(list -> {
-                        List<String> copy = new ArrayList<>(list);
-                        Collections.reverse(copy);
-                        return copy;
-                    })
-                    .map(trackGroups -> trackGroups.stream().filter(groups::contains).findFirst())
-                    .filter(Optional::isPresent)
-                    .map(Optional::get)
-                    .findFirst()
-                    .map(this::convertGroupDisplayName)
-                    .orElse("");
-        });
+                for (String group : track.getGroups()) {
+                    if (groups.hasInheritedGroup(group)) {
+                        return convertGroupDisplayName(group);
+                    }
+                }
+            }
+            return "";
+        }));
+
+        builder.addDynamic("last_group_on_tracks", ParsedDynamicPlaceholder.of(LPPlaceholderProvider::parseList, (player, user, userData, queryOptions, tracks) -> {
+            GroupSnapshot groups = this.userData.getGroups(user, queryOptions);
+            for (String trackName : tracks) {
+                TrackIndex.IndexedTrack track = this.tracks.getTrack(trackName);
+                if (track == null) {
+                    continue;
+                }
 
-        builder.addDynamic("expiry_time", (player, user, userData, queryOptions, node) ->
-                user.getNodes().stream()
-                        .filter(Node::hasExpiry)
-                        .filter(n -> n.getKey().equals(node))
+                for (String group : track.getReversedGroups()) {
+                    if (groups.hasInheritedGroup(group)) {
+                        return convertGroupDisplayName(group);
+                    }
+                }
+            }
+            return "";
+        }));
+
+        // the expiry placeholders change as time passes, so their results can't be cached
+        // directly - instead the resolved expiry time is cached, see ExpiryCache
+        ExpiryCache expiryTime = createExpiryCache((user, queryOptions, node) ->
+                firstExpiry(this.userData.getNodes(user).getNodes(node).stream()
                         .filter(n -> queryOptions.satisfies(n.getContexts()))
-                        .map(Node::getExpiryDuration)
-                        .filter(Objects::nonNull)
-                        .filter(d -> !d.isNegative())
-                        .findFirst()
-                        .map(this::formatDuration)
-                        .orElse("")
+                )
         );
+        builder.addVolatileDynamic("expiry_time", (player, user, userData, queryOptions, node) -> expiryTime.get(user, queryOptions, node));
 
-        builder.addDynamic("inherited_expiry_time", (player, user, userData, queryOptions, node) ->
-                user.resolveInheritedNodes(queryOptions).stream()
-                        .filter(Node::hasExpiry)
+        ExpiryCache inheritedExpiryTime = createExpiryCache((user, queryOptions, node) ->
+                firstExpiry(user.resolveInheritedNodes(queryOptions).stream()
                         .filter(n -> n.getKey().equals(node))
-                        .map(Node::getExpiryDuration)
-                        .filter(Objects::nonNull)
-                        .filter(d -> !d.isNegative())
-                        .findFirst()
-                        .map(this::formatDuration)
-                        .orElse("")
+                )
         );
+        builder.addVolatileDynamic("inherited_expiry_time", (player, user, userData, queryOptions, node) -> inheritedExpiryTime.get(user, queryOptions, node));
 
-        builder.addDynamic("group_expiry_time", (player, user, userData, queryOptions, group) ->
-                user.getNodes(NodeType.INHERITANCE).stream()
-                        .filter(Node::hasExpiry)
-                        .filter(n -> n.getGroupName().equals(group))
+        ExpiryCache groupExpiryTime = createExpiryCache((user, queryOptions, group) ->
+                firstExpiry(this.userData.getNodes(user).getInheritanceNodes(group).stream()
                         .filter(n -> queryOptions.satisfies(n.getContexts()))
-                        .map(Node::getExpiryDuration)
-                        .filter(Objects::nonNull)
-                        .filter(d -> !d.isNegative())
-                        .findFirst()
-                        .map(this::formatDuration)
-                        .orElse("")
+                )
         );
+        builder.addVolatileDynamic("group_expiry_time", (player, user, userData, queryOptions, group) -> groupExpiryTime.get(user, queryOptions, group));
 
-        builder.addDynamic("inherited_group_expiry_time", (player, user, userData, queryOptions, group) ->
-                user.resolveInheritedNodes(queryOptions).stream()
-                        .filter(Node::hasExpiry)
+        ExpiryCache inheritedGroupExpiryTime = createExpiryCache((user, queryOptions, group) ->
+                firstExpiry(user.resolveInheritedNodes(queryOptions).stream()
                         .filter(NodeType.INHERITANCE::matches)
                         .map(NodeType.INHERITANCE::cast)
                         .filter(n -> n.getGroupName().equals(group))
-                        .map(Node::getExpiryDuration)
-                        .filter(Objects::nonNull)
-                        .filter(d -> !d.isNegative())
-                        .findFirst()
-                        .map(this::formatDuration)
-                        .orElse("")
+                )
         );
+        builder.addVolatileDynamic("inherited_group_expiry_time", (player, user, userData, queryOptions, group) -> inheritedGroupExpiryTime.get(user, queryOptions, group));
+
+        // online counts are the same for every player, and are maintained by the aggregate index
+        builder.addVolatileStatic("online_count", (player, user, userData, queryOptions) -> this.aggregates.getOnlineCount());
+
+        builder.addVolatileDynamic("online_in_group", (player, user, userData, queryOptions, group) -> this.aggregates.getGroupCount(group));
+
+        builder.addVolatileDynamic("online_on_track", (player, user, userData, queryOptions, trackName) -> {
+            AggregateIndex.TrackHistogram track = this.aggregates.getTrack(trackName);
+            return track == null ? 0 : track.getTotal();
+        });
+
+        builder.addVolatileDynamic("online_track_positions", (player, user, userData, queryOptions, trackName) -> {
+            AggregateIndex.TrackHistogram track = this.aggregates.getTrack(trackName);
+            if (track == null) {
+                return "";
+            }
+
+            List<String> groups = track.getGroups();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < groups.size(); i++) {
+                if (i != 0) {
+                    sb.append(", ");
+                }
+                sb.append(convertGroupDisplayName(groups.get(i))).append(": ").append(track.getCount(i));
+            }
+            return sb.toString();
+        });
+    }
+
+    private void setupRelational(PlaceholderBuilder builder) {
+        builder.addRelational("outranks", (viewer, viewerGroups, target, targetGroups, argument) ->
+                targetGroups.getHighestGroupWeight() > viewerGroups.getHighestGroupWeight()
+        );
+
+        builder.addRelational("outranked_by", (viewer, viewerGroups, target, targetGroups, argument) ->
+                targetGroups.getHighestGroupWeight() < viewerGroups.getHighestGroupWeight()
+        );
+
+        builder.addRelational("same_rank", (viewer, viewerGroups, target, targetGroups, argument) ->
+                targetGroups.getHighestGroupWeight() == viewerGroups.getHighestGroupWeight()
+        );
+
+        builder.addRelational("weight_difference", (viewer, viewerGroups, target, targetGroups, argument) ->
+                targetGroups.getHighestGroupWeight() - viewerGroups.getHighestGroupWeight()
+        );
+
+        builder.addRelational("same_primary_group", (viewer, viewerGroups, target, targetGroups, argument) ->
+                target.getPrimaryGroup().equalsIgnoreCase(viewer.getPrimaryGroup())
+        );
+
+        builder.addRelational("shares_group", (viewer, viewerGroups, target, targetGroups, argument) -> {
+            for (String group : targetGroups.getInheritedGroups()) {
+                if (viewerGroups.hasInheritedGroup(group)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+
+        // the targets group on a track, only if the viewer is on the track too
+        builder.addDynamicRelational("group_on_track", (viewer, viewerGroups, target, targetGroups, trackName) -> {
+            TrackIndex.IndexedTrack track = this.tracks.getTrack(trackName);
+            if (track == null || getGroupOnTrack(track, viewerGroups) == null) {
+                return "";
+            }
+
+            String group = getGroupOnTrack(track, targetGroups);
+            return group == null ? "" : convertGroupDisplayName(group);
+        });
+
+        builder.addDynamicRelational("outranks_on_track", (viewer, viewerGroups, target, targetGroups, trackName) -> {
+            TrackIndex.IndexedTrack track = this.tracks.getTrack(trackName);
+            if (track == null) {
+                return false;
+            }
+
+            String viewerGroup = getGroupOnTrack(track, viewerGroups);
+            String targetGroup = getGroupOnTrack(track, targetGroups);
+            return viewerGroup != null && targetGroup != null && track.indexOf(targetGroup) > track.indexOf(viewerGroup);
+        });
     }
 
     @Override
     public String onPlaceholderRequest(Object player, UUID playerUuid, String placeholder) {
-        User user = this.luckPerms.getUserManager().getUser(playerUuid);
+        return onPlaceholderRequest(player, playerUuid, placeholder, 0, placeholder.length());
+    }
+
+    @Override
+    public String onPlaceholderRequest(Object player, UUID playerUuid, CharSequence text, int start, int end) {
+        User user = getUser(player, playerUuid);
         if (user == null) {
-            return "";
+            if (this.snapshot == null) {
+                return "";
+            }
+            PlaceholderHandle handle = this.handles.get(text, start, end);
+            return handle == null ? "" : getStoredValue(playerUuid, handle);
+        }
+
+        PlaceholderHandle handle = getHandle(text, start, end);
+        if (handle == null) {
+            return null;
+        }
+
+        CachedDataManager data = user.getCachedData();
+        QueryOptions queryOptions = this.contexts.get(player, playerUuid).getQueryOptions();
+        return evaluate(handle, player, user, data, queryOptions, null);
+    }
+
+    @Override
+    public Map<String, String> resolveAll(Object player, UUID playerUuid, Collection<String> placeholders) {
+        Map<String, String> results = new LinkedHashMap<>();
+
+        User user = getUser(player, playerUuid);
+        if (user == null) {
+            // known placeholders resolve to their stored value, or empty until the user is loaded
+            for (String placeholder : placeholders) {
+                PlaceholderHandle handle = getHandle(placeholder, 0, placeholder.length());
+                results.put(placeholder, handle == null ? null : getStoredValue(playerUuid, handle));
+            }
+            return results;
         }
 
         CachedDataManager data = user.getCachedData();
-        QueryOptions queryOptions = this.luckPerms.getContextManager().getQueryOptions(player);
+        QueryOptions queryOptions = this.contexts.get(player, playerUuid).getQueryOptions();
+
+        // obtain the cached values once for the whole batch, see PlaceholderCache#values
+        PlaceholderCache.Values cached = this.cache.values(user.getUniqueId(), queryOptions);
 
-        placeholder = placeholder.toLowerCase(Locale.ROOT);
+        for (String placeholder : placeholders) {
+            if (results.containsKey(placeholder)) {
+                continue;
+            }
 
-        for (Map.Entry<String, Placeholder> entry : this.placeholders.entrySet()) {
-            String id = entry.getKey();
+            PlaceholderHandle handle = getHandle(placeholder, 0, placeholder.length());
+            results.put(placeholder, handle == null ? null : evaluate(handle, player, user, data, queryOptions, cached));
+        }
+        return results;
+    }
 
-            Placeholder p = entry.getValue();
-            boolean handled = false;
-            Object result = null;
+    @Override
+    public String onRelationalPlaceholderRequest(Object viewer, UUID viewerUuid, Object target, UUID targetUuid, String placeholder) {
+        PlaceholderHandle handle = this.relationalHandles.get(placeholder, 0, placeholder.length());
+        if (handle == null) {
+            this.metrics.recordUnknown();
+            return null;
+        }
 
-            if (p instanceof DynamicPlaceholder) {
-                DynamicPlaceholder dp = (DynamicPlaceholder) p;
+        User viewerUser = getUser(viewer, viewerUuid);
+        User targetUser = getUser(target, targetUuid);
+        if (viewerUser == null || targetUser == null) {
+            return "";
+        }
 
-                if (placeholder.startsWith(id) && placeholder.length() > id.length()) {
-                    String argument = placeholder.substring(id.length());
-                    result = dp.handle(player, user, data, queryOptions, argument);
-                    handled = true;
-                }
+        PlaceholderMetrics.Stats stats = this.metrics.get(handle.getEntry().getMetricId());
+        long start = stats == null ? 0 : System.nanoTime();
 
-            } else if (p instanceof StaticPlaceholder) {
-                StaticPlaceholder sp = (StaticPlaceholder) p;
+        QueryOptions viewerOptions = this.contexts.get(viewer, viewerUuid).getQueryOptions();
+        QueryOptions targetOptions = this.contexts.get(target, targetUuid).getQueryOptions();
 
-                if (placeholder.equals(id)) {
-                    result = sp.handle(player, user, data, queryOptions);
-                    handled = true;
-                }
+        // obtain the cached values before computing, see RelationalCache#values
+        RelationalCache.Values cached = this.relationalCache.values(viewerUuid, viewerOptions, targetUuid, targetOptions);
+        String result = cached.get(handle.getPlaceholder());
+        if (result != null) {
+            if (stats != null) {
+                stats.recordHit(System.nanoTime() - start);
             }
+            return result;
+        }
+
+        GroupSnapshot viewerGroups = this.userData.getGroups(viewerUser, viewerOptions);
+        GroupSnapshot targetGroups = this.userData.getGroups(targetUser, targetOptions);
+        Object value = handle.getEntry().handleRelational(viewerUser, viewerGroups, targetUser, targetGroups, handle.getArgument());
 
-            if (!handled) {
+        if (value instanceof Boolean) {
+            value = formatBoolean((boolean) value);
+        }
+
+        result = value == null ? null : value.toString();
+        if (result != null) {
+            cached.put(handle.getPlaceholder(), result);
+        }
+        if (stats != null) {
+            stats.recordMiss(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the user for a player. Offline players are loaded asynchronously.
+     *
+     * @param player the player
+     * @param playerUuid the players unique id
+     * @return the user, or null if they aren't loaded (yet)
+     */
+    private User getUser(Object player, UUID playerUuid) {
+        User user = this.luckPerms.getUserManager().getUser(playerUuid);
+        if (user == null && !this.platform.isOnline(player)) {
+            user = this.offlineUsers.get(playerUuid);
+        }
+        return user;
+    }
+
+    /**
+     * Gets the user with the given unique id, loading them if LuckPerms doesn't
+     * have them loaded.
+     *
+     * @param playerUuid the players unique id
+     * @return a future encapsulating the user
+     */
+    CompletableFuture<User> loadUser(UUID playerUuid) {
+        User user = this.luckPerms.getUserManager().getUser(playerUuid);
+        if (user != null) {
+            return CompletableFuture.completedFuture(user);
+        }
+        return this.offlineUsers.load(playerUuid);
+    }
+
+    /**
+     * Gets the compiled handle for a placeholder, compiling it if necessary.
+     *
+     * @param placeholder the text containing the placeholder
+     * @param start the index the placeholder starts at
+     * @param end the index the placeholder ends at (exclusive)
+     * @return the handle, or null if the placeholder is unknown
+     */
+    private PlaceholderHandle getHandle(CharSequence placeholder, int start, int end) {
+        PlaceholderHandle handle = this.handles.get(placeholder, start, end);
+        if (handle == null) {
+            this.metrics.recordUnknown();
+        }
+        return handle;
+    }
+
+    @Override
+    public PlaceholderHandle compile(String placeholder) {
+        PlaceholderDispatcher.Entry entry = this.placeholders.match(placeholder);
+        if (entry == null) {
+            return null;
+        }
+        return new PlaceholderHandle(this, entry, placeholder);
+    }
+
+    @Override
+    public PlaceholderSubscription subscribe(Object player, UUID playerUuid, String placeholder, PlaceholderListener listener) {
+        PlaceholderHandle handle = compile(placeholder);
+        if (handle == null) {
+            return null;
+        }
+        return this.subscriptions.subscribe(player, playerUuid, handle, listener);
+    }
+
+    private PlaceholderHandle compileRelational(String placeholder) {
+        PlaceholderDispatcher.Entry entry = this.relationalPlaceholders.match(placeholder);
+        if (entry == null) {
+            return null;
+        }
+        return new PlaceholderHandle(this, entry, placeholder);
+    }
+
+    @Override
+    public PlaceholderTemplate compileTemplate(String template) {
+        return PlaceholderTemplate.parse(this, template);
+    }
+
+    /**
+     * Evaluates a compiled placeholder.
+     *
+     * @param handle the compiled placeholder
+     * @param player the player
+     * @param playerUuid the players unique id
+     * @return the result
+     */
+    String evaluate(PlaceholderHandle handle, Object player, UUID playerUuid) {
+        User user = getUser(player, playerUuid);
+        if (user == null) {
+            return getStoredValue(playerUuid, handle);
+        }
+
+        CachedDataManager data = user.getCachedData();
+        QueryOptions queryOptions = this.contexts.get(player, playerUuid).getQueryOptions();
+        return evaluate(handle, player, user, data, queryOptions, null);
+    }
+
+    /**
+     * Evaluates a compiled placeholder without the platform player, using query
+     * options obtained beforehand. Called from a background thread by
+     * {@link SubscriptionManager}.
+     *
+     * @param handle the compiled placeholder
+     * @param playerUuid the players unique id
+     * @param queryOptions the query options
+     * @return the result
+     */
+    String evaluate(PlaceholderHandle handle, UUID playerUuid, QueryOptions queryOptions) {
+        User user = this.luckPerms.getUserManager().getUser(playerUuid);
+        if (user == null) {
+            user = this.offlineUsers.get(playerUuid);
+        }
+        if (user == null) {
+            return getStoredValue(playerUuid, handle);
+        }
+        return evaluate(handle, null, user, user.getCachedData(), queryOptions, null);
+    }
+
+    /**
+     * Gets the query options placeholders are computed with for a player.
+     *
+     * @param player the player
+     * @param playerUuid the players unique id
+     * @return the query options
+     */
+    QueryOptions getQueryOptions(Object player, UUID playerUuid) {
+        return this.contexts.get(player, playerUuid).getQueryOptions();
+    }
+
+    /**
+     * Renders a compiled template.
+     *
+     * @param template the template
+     * @param player the player
+     * @param playerUuid the players unique id
+     * @param builder the builder to append to
+     */
+    void render(PlaceholderTemplate template, Object player, UUID playerUuid, StringBuilder builder) {
+        User user = getUser(player, playerUuid);
+
+        CachedDataManager data = null;
+        QueryOptions queryOptions = null;
+        PlaceholderCache.Values cached = null;
+        if (user != null) {
+            data = user.getCachedData();
+            queryOptions = this.contexts.get(player, playerUuid).getQueryOptions();
+            // obtain the cached values once for the whole template, see PlaceholderCache#values
+            cached = this.cache.values(user.getUniqueId(), queryOptions);
+        }
+
+        for (Object segment : template.getSegments()) {
+            if (segment instanceof String) {
+                builder.append((String) segment);
                 continue;
             }
 
-            if (result instanceof Boolean) {
-                result = formatBoolean((boolean) result);
+            // placeholders render as their stored value (or empty) if the user isn't loaded,
+            // and as-is if they return null
+            PlaceholderTemplate.Token token = (PlaceholderTemplate.Token) segment;
+            if (user != null) {
+                String result = evaluate(token.getHandle(), player, user, data, queryOptions, cached);
+                builder.append(result == null ? token.getText() : result);
+            } else {
+                builder.append(getStoredValue(playerUuid, token.getHandle()));
             }
+        }
+    }
+
+    private String evaluate(PlaceholderHandle handle, Object player, User user, CachedDataManager data, QueryOptions queryOptions, PlaceholderCache.Values cached) {
+        PlaceholderMetrics.Stats stats = this.metrics.get(handle.getEntry().getMetricId());
+        long start = stats == null ? 0 : System.nanoTime();
+
+        if (!handle.getEntry().isCacheable()) {
+            String result = compute(handle, player, user, data, queryOptions);
+            if (stats != null) {
+                stats.recordUncached(System.nanoTime() - start);
+            }
+            return result;
+        }
 
-            return result == null ? null : result.toString();
+        this.prewarmer.record(handle);
+
+        // obtain the cached values before computing, see PlaceholderCache#values
+        if (cached == null) {
+            cached = this.cache.values(user.getUniqueId(), queryOptions);
+        }
+        String result = cached.get(handle.getPlaceholder());
+        if (result != null) {
+            if (stats != null) {
+                stats.recordHit(System.nanoTime() - start);
+            }
+            return result;
         }
 
-        return null;
+        result = compute(handle, player, user, data, queryOptions);
+        if (result != null) {
+            cached.put(handle.getPlaceholder(), result);
+            store(user.getUniqueId(), handle, result);
+        }
+        if (stats != null) {
+            stats.recordMiss(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the query options to compute placeholders with in the background for a
+     * player. Called by {@link PlaceholderPrewarmer} and {@link SubscriptionManager}
+     * on the thread the change was posted from, so that the platform player is
+     * never used by their threads.
+     *
+     * @param playerUuid the players unique id
+     * @return the query options, or null if the player isn't online
+     */
+    QueryOptions getBackgroundQueryOptions(UUID playerUuid) {
+        ContextCache.ContextSnapshot snapshot = this.contexts.getLast(playerUuid);
+        if (snapshot != null) {
+            return snapshot.getQueryOptions();
+        }
+
+        Object player = this.platform.getPlayer(playerUuid);
+        return player == null ? null : this.contexts.get(player, playerUuid).getQueryOptions();
+    }
+
+    /**
+     * Computes and caches any of the given placeholders which aren't already cached
+     * for a user. Called from a background thread by {@link PlaceholderPrewarmer},
+     * so placeholders are computed without a platform player.
+     *
+     * @param playerUuid the players unique id
+     * @param queryOptions the query options, from {@link #getBackgroundQueryOptions(UUID)}
+     * @param handles the placeholders
+     */
+    void prewarm(UUID playerUuid, QueryOptions queryOptions, List<PlaceholderHandle> handles) {
+        User user = this.luckPerms.getUserManager().getUser(playerUuid);
+        if (user == null) {
+            return;
+        }
+
+        CachedDataManager data = user.getCachedData();
+
+        // obtain the cached values before computing, see PlaceholderCache#values
+        PlaceholderCache.Values cached = this.cache.values(playerUuid, queryOptions);
+        for (PlaceholderHandle handle : handles) {
+            if (cached.get(handle.getPlaceholder()) == null) {
+                String result = compute(handle, null, user, data, queryOptions);
+                if (result != null) {
+                    cached.put(handle.getPlaceholder(), result);
+                    store(playerUuid, handle, result);
+                }
+
+                PlaceholderMetrics.Stats stats = this.metrics.get(handle.getEntry().getMetricId());
+                if (stats != null) {
+                    stats.recordPrewarmed();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the value of a placeholder from the snapshot store, for when the user
+     * isn't loaded (yet).
+     *
+     * @param playerUuid the players unique id
+     * @param handle the placeholder
+     * @return the stored value, or an empty string if there isn't one
+     */
+    private String getStoredValue(UUID playerUuid, PlaceholderHandle handle) {
+        if (this.snapshot == null || !handle.getEntry().isCacheable()) {
+            return "";
+        }
+        String value = this.snapshot.get(playerUuid, handle.getPlaceholder());
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Writes a computed value to the snapshot store, if it is enabled.
+     *
+     * @param playerUuid the players unique id
+     * @param handle the placeholder
+     * @param value the value
+     */
+    private void store(UUID playerUuid, PlaceholderHandle handle, String value) {
+        if (this.snapshot != null) {
+            this.snapshot.put(playerUuid, handle.getPlaceholder(), value);
+        }
+    }
+
+    private String compute(PlaceholderHandle handle, Object player, User user, CachedDataManager data, QueryOptions queryOptions) {
+        Object result = handle.getEntry().handle(player, user, data, queryOptions, handle.getArgument());
+
+        if (result instanceof Boolean) {
+            result = formatBoolean((boolean) result);
+        }
+
+        return result == null ? null : result.toString();
+    }
+
+    /**
+     * Stops listening for LuckPerms data changes, computing placeholders in
+     * the background, ends all subscriptions, flushes the snapshot store, and
+     * unregisters the metrics MBean.
+     */
+    public void close() {
+        this.notifier.close();
+        this.prewarmer.close();
+        this.subscriptions.close();
+        if (this.snapshot != null) {
+            this.snapshot.close();
+        }
+        this.metrics.unregister();
+    }
+
+    @Override
+    public void setMetricsEnabled(boolean enabled) {
+        this.metrics.setEnabled(enabled);
+    }
+
+    @Override
+    public String dumpMetrics() {
+        return this.metrics.dump();
+    }
+
+    @Override
+    public void onPlayerJoin(UUID playerUuid) {
+        this.notifier.playerJoin(playerUuid);
+    }
+
+    @Override
+    public void onPlayerQuit(UUID playerUuid) {
+        this.notifier.playerQuit(playerUuid);
     }
 
     @Override
     public Map<String, Placeholder> getPlaceholders() {
-        return placeholders;
+        return this.placeholders.getPlaceholders();
+    }
+
+    /**
+     * Parses a comma separated list argument, in lowercase.
+     *
+     * @param argument the argument
+     * @return the list
+     */
+    private static List<String> parseList(String argument) {
+        return Arrays.stream(argument.split(","))
+                .map(s -> s.trim().toLowerCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    /**
+     * Gets the group a user is a member of on a track.
+     *
+     * @param track the track
+     * @param groups the users groups
+     * @return the group, or null if the user is on none or several groups on the track
+     */
+    private static String getGroupOnTrack(TrackIndex.IndexedTrack track, GroupSnapshot groups) {
+        String match = null;
+        for (String group : groups.getDirectGroups()) {
+            if (track.containsGroup(group)) {
+                if (match != null) {
+                    return null;
+                }
+                match = group;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Creates an {@link ExpiryCache} which formats durations using the LuckPerms formatter,
+     * with the unit names given by {@link DurationFormatter.UnitNames#load()}.
+     *
+     * @param resolver the expiry time resolver
+     * @return the cache
+     */
+    private ExpiryCache createExpiryCache(ExpiryCache.Resolver resolver) {
+        ExpiryCache cache = new ExpiryCache(resolver, this.expiryFormatter);
+        this.notifier.addListener(cache);
+        return cache;
     }
 
     /**
-     * Format a duration using the LuckPerms formatter.
+     * Gets the expiry time of the first node which hasn't expired yet.
      *
-     * @param duration the duration
-     * @return a formatted version of the duration
+     * @param nodes the nodes
+     * @return the expiry time, or null if no nodes match
      */
-    private String formatDuration(Duration duration) {
-        return DurationFormatter.CONCISE.format(duration);
+    private static Instant firstExpiry(Stream<? extends Node> nodes) {
+        Instant now = Instant.now();
+        return nodes.filter(Node::hasExpiry)
+                .map(Node::getExpiry)
+                .filter(Objects::nonNull)
+                .filter(expiry -> !expiry.isBefore(now))
+                .findFirst()
+                .orElse(null);
     }
 
     /**
@@ -485,34 +1041,57 @@ public class LPPlaceholderProvider implements PlaceholderProvider {
      * @return a "display name" for the given group
      */
     private String convertGroupDisplayName(String groupName) {
-        if (groupName == null) {
-            return null;
-        }
-
-        Group group = this.luckPerms.getGroupManager().getGroup(groupName);
-        if (group != null) {
-            groupName = group.getFriendlyName();
-        }
-
-        return groupName;
+        return this.groups.getDisplayName(groupName);
     }
 
     /**
-     * Builds a placeholder map
+     * Builds a placeholder dispatcher
      */
     private static final class PlaceholderBuilder {
+        private final String metricPrefix;
         private final Map<String, Placeholder> placeholders = new LinkedHashMap<>();
+        private final Set<String> volatileIds = new HashSet<>();
+
+        PlaceholderBuilder(String metricPrefix) {
+            this.metricPrefix = metricPrefix;
+        }
 
         public void addDynamic(String id, DynamicPlaceholder placeholder) {
             this.placeholders.put(id + "_", placeholder);
         }
 
+        /**
+         * Adds a dynamic placeholder whose result depends on something other than
+         * LuckPerms data (e.g. the current time), and so must not be cached.
+         */
+        public void addVolatileDynamic(String id, DynamicPlaceholder placeholder) {
+            addDynamic(id, placeholder);
+            this.volatileIds.add(id + "_");
+        }
+
         public void addStatic(String id, StaticPlaceholder placeholder) {
             this.placeholders.put(id, placeholder);
         }
-        
-        public Map<String, Placeholder> build() {
-            return Map.copyOf(this.placeholders);
+
+        /**
+         * Adds a static placeholder whose result depends on something other than
+         * the requesting user's LuckPerms data, and so must not be cached.
+         */
+        public void addVolatileStatic(String id, StaticPlaceholder placeholder) {
+            addStatic(id, placeholder);
+            this.volatileIds.add(id);
+        }
+
+        public void addRelational(String id, RelationalPlaceholder placeholder) {
+            this.placeholders.put(id, placeholder);
+        }
+
+        public void addDynamicRelational(String id, RelationalPlaceholder placeholder) {
+            this.placeholders.put(id + "_", placeholder);
+        }
+
+        public PlaceholderDispatcher build() {
+            return new PlaceholderDispatcher(this.placeholders, this.volatileIds, this.metricPrefix);
         }
     }
 }
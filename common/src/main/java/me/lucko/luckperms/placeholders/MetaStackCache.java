@@ -0,0 +1,193 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.metastacking.DuplicateRemovalFunction;
+import net.luckperms.api.metastacking.MetaStackDefinition;
+import net.luckperms.api.metastacking.MetaStackElement;
+import net.luckperms.api.metastacking.MetaStackFactory;
+import net.luckperms.api.query.QueryOptions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Caches parsed {@link MetaStackDefinition}s, and the {@link QueryOptions} derived
+ * from them.
+ *
+ * <p>Interning the derived query options means repeated lookups for the same
+ * definition use the same instance, instead of building a new one through
+ * {@link QueryOptions#toBuilder()} on every request.</p>
+ */
+final class MetaStackCache {
+
+    /**
+     * The maximum number of entries to hold in each map before it is cleared.
+     */
+    private static final int MAX_SIZE = 256;
+
+    private final MetaStackFactory factory;
+
+    /**
+     * Single element definitions, keyed by the element
+     */
+    private final Map<String, Optional<MetaStackDefinition>> elements = new ConcurrentHashMap<>();
+
+    /**
+     * Stack definitions, keyed by the definition string
+     */
+    private final Map<String, Optional<MetaStackDefinition>> stacks = new ConcurrentHashMap<>();
+
+    /**
+     * Derived query options, keyed by definition then base query options
+     */
+    private final Map<MetaStackDefinition, Map<QueryOptions, QueryOptions>> queryOptions = new ConcurrentHashMap<>();
+
+    MetaStackCache(MetaStackFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Gets a definition containing a single element.
+     *
+     * @param element the element, e.g. {@code highest_on_track_staff}
+     * @return the definition, or null if the element is invalid
+     */
+    public MetaStackDefinition getElementDefinition(String element) {
+        return get(this.elements, element, this::parseElement);
+    }
+
+    /**
+     * Gets a definition from a stack definition string.
+     *
+     * <p>The format is {@code elements[;duplicates[;start-spacer[;middle-spacer[;end-spacer]]]]},
+     * where elements are separated by commas, and duplicates is one of {@code retain-all},
+     * {@code first-only} or {@code last-only} - mirroring the LuckPerms meta-formatting
+     * config. Elements and duplicates are matched ignoring case, and the spacers are
+     * used as they are.</p>
+     *
+     * @param definition the definition string
+     * @return the definition, or null if it is invalid
+     */
+    public MetaStackDefinition getStackDefinition(String definition) {
+        return get(this.stacks, definition, this::parseStack);
+    }
+
+    /**
+     * Gets query options which use the given definition for both the prefix and suffix stack.
+     *
+     * @param base the base query options
+     * @param definition the definition
+     * @return the derived query options
+     */
+    public QueryOptions getQueryOptions(QueryOptions base, MetaStackDefinition definition) {
+        Map<QueryOptions, QueryOptions> derived = this.queryOptions.get(definition);
+        if (derived == null) {
+            if (this.queryOptions.size() >= MAX_SIZE) {
+                this.queryOptions.clear();
+            }
+            derived = this.queryOptions.computeIfAbsent(definition, x -> new ConcurrentHashMap<>());
+        }
+
+        QueryOptions options = derived.get(base);
+        if (options == null) {
+            if (derived.size() >= MAX_SIZE) {
+                derived.clear();
+            }
+            options = derived.computeIfAbsent(base, x -> x.toBuilder()
+                    .option(MetaStackDefinition.PREFIX_STACK_KEY, definition)
+                    .option(MetaStackDefinition.SUFFIX_STACK_KEY, definition)
+                    .build()
+            );
+        }
+        return options;
+    }
+
+    private static MetaStackDefinition get(Map<String, Optional<MetaStackDefinition>> cache, String key, Function<String, MetaStackDefinition> parser) {
+        Optional<MetaStackDefinition> definition = cache.get(key);
+        if (definition == null) {
+            if (cache.size() >= MAX_SIZE) {
+                cache.clear();
+            }
+            definition = cache.computeIfAbsent(key, x -> Optional.ofNullable(parser.apply(x)));
+        }
+        return definition.orElse(null);
+    }
+
+    private MetaStackDefinition parseElement(String element) {
+        MetaStackElement stackElement = this.factory.fromString(element.toLowerCase(Locale.ROOT)).orElse(null);
+        if (stackElement == null) {
+            return null;
+        }
+        return this.factory.createDefinition(List.of(stackElement), DuplicateRemovalFunction.RETAIN_ALL, "", "", "");
+    }
+
+    private MetaStackDefinition parseStack(String definition) {
+        String[] parts = definition.split(";", -1);
+        if (parts.length > 5) {
+            return null;
+        }
+
+        List<MetaStackElement> elements = new ArrayList<>();
+        for (String element : parts[0].split(",")) {
+            MetaStackElement stackElement = this.factory.fromString(element.trim().toLowerCase(Locale.ROOT)).orElse(null);
+            if (stackElement == null) {
+                return null;
+            }
+            elements.add(stackElement);
+        }
+
+        DuplicateRemovalFunction duplicates = parts.length > 1 ? parseDuplicateRemovalFunction(parts[1].trim().toLowerCase(Locale.ROOT)) : DuplicateRemovalFunction.RETAIN_ALL;
+        if (duplicates == null) {
+            return null;
+        }
+
+        String startSpacer = parts.length > 2 ? parts[2] : "";
+        String middleSpacer = parts.length > 3 ? parts[3] : "";
+        String endSpacer = parts.length > 4 ? parts[4] : "";
+
+        return this.factory.createDefinition(elements, duplicates, startSpacer, middleSpacer, endSpacer);
+    }
+
+    private static DuplicateRemovalFunction parseDuplicateRemovalFunction(String name) {
+        switch (name) {
+            case "":
+            case "retain-all":
+                return DuplicateRemovalFunction.RETAIN_ALL;
+            case "first-only":
+                return DuplicateRemovalFunction.FIRST_ONLY;
+            case "last-only":
+                return DuplicateRemovalFunction.LAST_ONLY;
+            default:
+                return null;
+        }
+    }
+}
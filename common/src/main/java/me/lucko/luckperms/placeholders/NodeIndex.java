@@ -0,0 +1,95 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.model.user.User;
+import net.luckperms.api.node.Node;
+import net.luckperms.api.node.NodeType;
+import net.luckperms.api.node.types.InheritanceNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable index of a user's own nodes, keyed by node key and by the group
+ * name of inheritance nodes.
+ *
+ * <p>Nodes are not filtered by context, as the lists for a single key are
+ * small - callers filter against their query options.</p>
+ */
+final class NodeIndex {
+
+    /**
+     * Builds an index of the given user's nodes.
+     *
+     * @param user the user
+     * @return the index
+     */
+    static NodeIndex build(User user) {
+        Map<String, List<Node>> byKey = new HashMap<>();
+        Map<String, List<InheritanceNode>> byGroup = new HashMap<>();
+
+        for (Node node : user.getNodes()) {
+            byKey.computeIfAbsent(node.getKey(), x -> new ArrayList<>(1)).add(node);
+            if (NodeType.INHERITANCE.matches(node)) {
+                InheritanceNode inheritanceNode = NodeType.INHERITANCE.cast(node);
+                byGroup.computeIfAbsent(inheritanceNode.getGroupName(), x -> new ArrayList<>(1)).add(inheritanceNode);
+            }
+        }
+
+        return new NodeIndex(byKey, byGroup);
+    }
+
+    private final Map<String, List<Node>> byKey;
+    private final Map<String, List<InheritanceNode>> byGroup;
+
+    private NodeIndex(Map<String, List<Node>> byKey, Map<String, List<InheritanceNode>> byGroup) {
+        this.byKey = byKey;
+        this.byGroup = byGroup;
+    }
+
+    /**
+     * Gets the nodes with the given key.
+     *
+     * @param key the node key
+     * @return the nodes, in the order returned by {@link User#getNodes()}
+     */
+    public List<Node> getNodes(String key) {
+        return this.byKey.getOrDefault(key, List.of());
+    }
+
+    /**
+     * Gets the inheritance nodes for the given group.
+     *
+     * @param groupName the group name
+     * @return the nodes, in the order returned by {@link User#getNodes()}
+     */
+    public List<InheritanceNode> getInheritanceNodes(String groupName) {
+        return this.byGroup.getOrDefault(groupName, List.of());
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.model.user.User;
+import net.luckperms.api.model.user.UserManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads and caches users for players who are offline, so placeholders can be
+ * shown for them (e.g. on holograms and leaderboards).
+ *
+ * <p>Users are loaded asynchronously, and concurrent requests for the same user
+ * share a single load. Until the load completes, the placeholder resolves as if the
+ * user didn't exist. Loaded users are kept in a bounded, least-recently-used cache.
+ * Once an entry is old, or the users data has changed, it is still served while a
+ * reload happens in the background.</p>
+ *
+ * <p>The cache is split into segments by unique id, each with its own lock, so
+ * requests for different players from different threads rarely contend.</p>
+ */
+final class OfflineUserCache implements DataChangeListener {
+
+    /**
+     * The maximum number of users to cache.
+     */
+    private static final int MAX_SIZE = 1000;
+
+    /**
+     * The number of independently locked segments. Must be a power of two.
+     */
+    private static final int SEGMENTS = 16;
+
+    /**
+     * How long before a cached user is reloaded. The old value is served until the reload completes.
+     */
+    private static final long REFRESH_AFTER_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * How long before a cached user is discarded.
+     */
+    private static final long EXPIRE_AFTER_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final UserManager userManager;
+
+    /**
+     * Cached users, split into segments. Each segment is in access order, and guarded by itself
+     */
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * Loads which are in progress
+     */
+    private final Map<UUID, CompletableFuture<User>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * Users with a load whose own data recalculation hasn't been seen yet. Loading a
+     * user recalculates their data, and the resulting event is posted asynchronously,
+     * possibly after the load completes - without this, every load would mark the new
+     * entry stale and cause another.
+     */
+    private final Set<UUID> awaitingRecalculation = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Users whose data changed while they were being loaded
+     */
+    private final Set<UUID> changedWhileLoading = ConcurrentHashMap.newKeySet();
+
+    OfflineUserCache(UserManager userManager) {
+        this.userManager = userManager;
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment();
+        }
+    }
+
+    private Segment segment(UUID uniqueId) {
+        int hash = uniqueId.hashCode();
+        return this.segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Gets the cached user, starting a load if they aren't cached or are due to be reloaded.
+     *
+     * @param uniqueId the users unique id
+     * @return the user, or null if they haven't been loaded yet
+     */
+    public User get(UUID uniqueId) {
+        long now = System.nanoTime();
+
+        Segment segment = segment(uniqueId);
+        CachedUser entry;
+        synchronized (segment) {
+            entry = segment.get(uniqueId);
+            if (entry != null && now - entry.loaded > EXPIRE_AFTER_NANOS) {
+                segment.remove(uniqueId);
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            load(uniqueId);
+            return null;
+        }
+
+        if (entry.stale || now - entry.loaded > REFRESH_AFTER_NANOS) {
+            load(uniqueId);
+        }
+        return entry.user;
+    }
+
+    /**
+     * Loads a user into the cache, or joins a load which is already in progress.
+     *
+     * @param uniqueId the users unique id
+     * @return a future encapsulating the loaded user
+     */
+    public CompletableFuture<User> load(UUID uniqueId) {
+        CompletableFuture<User> future = this.loading.get(uniqueId);
+        if (future != null) {
+            return future;
+        }
+
+        CompletableFuture<User> created = new CompletableFuture<>();
+        future = this.loading.putIfAbsent(uniqueId, created);
+        if (future != null) {
+            return future;
+        }
+
+        this.awaitingRecalculation.add(uniqueId);
+        this.userManager.loadUser(uniqueId).whenComplete((user, e) -> {
+            // cache before removing the load, so there's no window where neither is present
+            if (user != null) {
+                CachedUser entry = new CachedUser(user, System.nanoTime());
+                entry.stale = this.changedWhileLoading.remove(uniqueId);
+                Segment segment = segment(uniqueId);
+                synchronized (segment) {
+                    segment.put(uniqueId, entry);
+                }
+            } else {
+                this.awaitingRecalculation.remove(uniqueId);
+            }
+            this.loading.remove(uniqueId, created);
+
+            if (e != null) {
+                created.completeExceptionally(e);
+            } else {
+                created.complete(user);
+            }
+        });
+        return created;
+    }
+
+    @Override
+    public void onUserDataChange(UUID uniqueId) {
+        // caused by our own load, which will cache the changed data anyway
+        if (this.awaitingRecalculation.remove(uniqueId)) {
+            return;
+        }
+
+        // the load may have read the data before it changed
+        if (this.loading.containsKey(uniqueId)) {
+            this.changedWhileLoading.add(uniqueId);
+        }
+
+        Segment segment = segment(uniqueId);
+        synchronized (segment) {
+            CachedUser entry = segment.get(uniqueId);
+            if (entry != null) {
+                entry.stale = true;
+            }
+        }
+    }
+
+    @Override
+    public void onUserUnload(UUID uniqueId) {
+        // a load which didn't cause a recalculation mustn't hide a later change
+        this.awaitingRecalculation.remove(uniqueId);
+    }
+
+    @Override
+    public void onGroupDataChange() {
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                for (CachedUser entry : segment.values()) {
+                    entry.stale = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * A segment of the cache, holding users in access order
+     */
+    private static final class Segment extends LinkedHashMap<UUID, CachedUser> {
+        Segment() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, CachedUser> eldest) {
+            return size() > MAX_SIZE / SEGMENTS;
+        }
+    }
+
+    private static final class CachedUser {
+        private final User user;
+        private final long loaded;
+        private volatile boolean stale;
+
+        CachedUser(User user, long loaded) {
+            this.user = user;
+            this.loaded = loaded;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.cacheddata.CachedDataManager;
+import net.luckperms.api.model.user.User;
+import net.luckperms.api.query.QueryOptions;
+
+import java.util.function.Function;
+
+/**
+ * A {@link DynamicPlaceholder} whose argument can be parsed ahead of time, so that
+ * {@link CompiledPlaceholder}s only have to parse it once.
+ *
+ * @param <T> the parsed argument type
+ */
+interface ParsedDynamicPlaceholder<T> extends DynamicPlaceholder {
+
+    static <T> ParsedDynamicPlaceholder<T> of(Function<String, T> parser, Handler<T> handler) {
+        return new ParsedDynamicPlaceholder<T>() {
+            @Override
+            public T parse(String argument) {
+                return parser.apply(argument);
+            }
+
+            @Override
+            public Object handleParsed(Object player, User user, CachedDataManager userData, QueryOptions queryOptions, T argument) {
+                return handler.handle(player, user, userData, queryOptions, argument);
+            }
+        };
+    }
+
+    T parse(String argument);
+
+    Object handleParsed(Object player, User user, CachedDataManager userData, QueryOptions queryOptions, T argument);
+
+    @Override
+    default Object handle(Object player, User user, CachedDataManager userData, QueryOptions queryOptions, String argument) {
+        return handleParsed(player, user, userData, queryOptions, parse(argument));
+    }
+
+    @FunctionalInterface
+    interface Handler<T> {
+        Object handle(Object player, User user, CachedDataManager userData, QueryOptions queryOptions, T argument);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.query.QueryOptions;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches placeholder results per user, placeholder and {@link QueryOptions}.
+ *
+ * <p>Entries are dropped whenever the LuckPerms data they could have been computed
+ * from changes, and when the user is unloaded.</p>
+ */
+final class PlaceholderCache implements DataChangeListener {
+
+    /**
+     * The maximum number of values cached for a single user, before they are all dropped.
+     * Stops unbounded dynamic arguments (e.g. meta keys) from using too much memory.
+     */
+    private static final int MAX_VALUES_PER_USER = 512;
+
+    private final Map<UUID, UserValues> users = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the cached values for the given user and query options.
+     *
+     * <p>Callers should obtain the {@link Values} <b>before</b> computing a value to
+     * put into it. If the data changes while the value is being computed, the
+     * (possibly stale) value will be written to an instance which has already
+     * been discarded.</p>
+     *
+     * @param uniqueId the users unique id
+     * @param queryOptions the query options
+     * @return the values
+     */
+    public Values values(UUID uniqueId, QueryOptions queryOptions) {
+        return this.users.computeIfAbsent(uniqueId, x -> new UserValues()).values(queryOptions);
+    }
+
+    @Override
+    public void onUserDataChange(UUID uniqueId) {
+        this.users.remove(uniqueId);
+    }
+
+    @Override
+    public void onGroupDataChange() {
+        this.users.clear();
+    }
+
+    @Override
+    public void onTrackDataChange() {
+        this.users.clear();
+    }
+
+    @Override
+    public void onContextChange(UUID uniqueId) {
+        // values are keyed by query options, so this only frees memory
+        if (uniqueId != null) {
+            this.users.remove(uniqueId);
+        }
+    }
+
+    @Override
+    public void onUserUnload(UUID uniqueId) {
+        this.users.remove(uniqueId);
+    }
+
+    /**
+     * The cached values for a single user.
+     */
+    private static final class UserValues {
+        private final Map<QueryOptions, Values> values = new ConcurrentHashMap<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        Values values(QueryOptions queryOptions) {
+            // check first, as the lambda captures this (and so allocates)
+            Values values = this.values.get(queryOptions);
+            if (values == null) {
+                values = this.values.computeIfAbsent(queryOptions, x -> new Values(this));
+            }
+            return values;
+        }
+
+        void onPut() {
+            if (this.size.incrementAndGet() > MAX_VALUES_PER_USER) {
+                this.size.set(0);
+                this.values.clear();
+            }
+        }
+    }
+
+    /**
+     * The cached values for a single user and set of query options.
+     */
+    static final class Values {
+        private final UserValues user;
+        private final Map<String, String> values = new ConcurrentHashMap<>();
+
+        Values(UserValues user) {
+            this.user = user;
+        }
+
+        /**
+         * Gets a cached value.
+         *
+         * @param placeholder the (lowercase) placeholder
+         * @return the value, or null if not cached
+         */
+        public String get(String placeholder) {
+            return this.values.get(placeholder);
+        }
+
+        /**
+         * Caches a value.
+         *
+         * @param placeholder the (lowercase) placeholder
+         * @param value the value
+         */
+        public void put(String placeholder, String value) {
+            if (this.values.put(placeholder, value) == null) {
+                this.user.onPut();
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.cacheddata.CachedDataManager;
+import net.luckperms.api.model.user.User;
+import net.luckperms.api.query.QueryOptions;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Resolves placeholder identifiers to the {@link Placeholder} registered to handle them.
+ *
+ * <p>Static placeholders are matched exactly using a hash lookup. Dynamic placeholders
+ * are matched using a prefix trie, which always selects the longest registered prefix
+ * that still leaves a non-empty argument. (e.g. {@code meta_all_foo} resolves to
+ * {@code meta_all_} rather than {@code meta_})</p>
+ *
+ * <p>Instances are immutable once built, and safe to share between threads.</p>
+ */
+final class PlaceholderDispatcher {
+
+    /**
+     * All registered placeholders, in registration order
+     */
+    private final Map<String, Placeholder> placeholders;
+
+    /**
+     * Static placeholders, keyed by their exact id
+     */
+    private final Map<String, Entry> staticPlaceholders;
+
+    /**
+     * The root of the dynamic placeholder trie
+     */
+    private final TrieNode dynamicPlaceholders;
+
+    /**
+     * Creates a new dispatcher.
+     *
+     * @param placeholders the placeholders, keyed by id, in registration order
+     * @param volatileIds the ids of placeholders whose results must not be cached
+     * @param metricPrefix the prefix added to each id to identify it in metrics
+     */
+    PlaceholderDispatcher(Map<String, Placeholder> placeholders, Set<String> volatileIds, String metricPrefix) {
+        Map<String, Entry> staticPlaceholders = new HashMap<>();
+        TrieNodeBuilder dynamicPlaceholders = new TrieNodeBuilder();
+
+        for (Map.Entry<String, Placeholder> e : placeholders.entrySet()) {
+            Entry entry = new Entry(e.getKey(), metricPrefix + e.getKey(), e.getValue(), !volatileIds.contains(e.getKey()));
+            if (entry.isDynamic()) {
+                dynamicPlaceholders.insert(entry);
+            } else {
+                staticPlaceholders.put(entry.getId(), entry);
+            }
+        }
+
+        this.placeholders = Collections.unmodifiableMap(new LinkedHashMap<>(placeholders));
+        this.staticPlaceholders = staticPlaceholders;
+        this.dynamicPlaceholders = dynamicPlaceholders.build();
+    }
+
+    /**
+     * Gets all registered placeholders, in the order they were registered.
+     *
+     * @return the placeholders
+     */
+    public Map<String, Placeholder> getPlaceholders() {
+        return this.placeholders;
+    }
+
+    /**
+     * Finds the placeholder which should handle the given placeholder string.
+     *
+     * <p>Static placeholders take priority, otherwise the dynamic placeholder with the
+     * longest id which prefixes the given placeholder (leaving a non-empty argument)
+     * is returned. Ids are matched ignoring case.</p>
+     *
+     * @param placeholder the placeholder
+     * @return the matched entry, or null if there isn't one
+     */
+    public Entry match(String placeholder) {
+        Entry match = this.staticPlaceholders.get(placeholder.toLowerCase(Locale.ROOT));
+        if (match != null) {
+            return match;
+        }
+
+        TrieNode node = this.dynamicPlaceholders;
+
+        // the last char can never be the end of a match, as the argument would be empty
+        int limit = placeholder.length() - 1;
+        for (int i = 0; i < limit; i++) {
+            node = node.child(Character.toLowerCase(placeholder.charAt(i)));
+            if (node == null) {
+                break;
+            }
+            if (node.entry != null) {
+                match = node.entry;
+            }
+        }
+
+        return match;
+    }
+
+    /**
+     * A registered placeholder, together with the id it was registered under.
+     */
+    static final class Entry {
+        private final String id;
+        private final String metricId;
+        private final Placeholder placeholder;
+        private final boolean dynamic;
+        private final boolean cacheable;
+
+        Entry(String id, String metricId, Placeholder placeholder, boolean cacheable) {
+            this.id = id;
+            this.metricId = metricId;
+            this.placeholder = placeholder;
+            // relational placeholders are registered as dynamic by ending their id with "_"
+            this.dynamic = placeholder instanceof DynamicPlaceholder || (placeholder instanceof RelationalPlaceholder && id.endsWith("_"));
+            this.cacheable = cacheable;
+        }
+
+        public String getId() {
+            return this.id;
+        }
+
+        /**
+         * Gets the id this placeholder's stats are recorded under in {@link PlaceholderMetrics}.
+         *
+         * @return the metric id
+         */
+        public String getMetricId() {
+            return this.metricId;
+        }
+
+        public Placeholder getPlaceholder() {
+            return this.placeholder;
+        }
+
+        public boolean isDynamic() {
+            return this.dynamic;
+        }
+
+        /**
+         * Gets if the results of this placeholder only depend on LuckPerms data, and
+         * can therefore be cached until that data changes.
+         *
+         * @return if the placeholder is cacheable
+         */
+        public boolean isCacheable() {
+            return this.cacheable;
+        }
+
+        /**
+         * Gets the form of a placeholder matched by this entry which it is compiled and
+         * cached as. This is the placeholder in lowercase, except that the argument of a
+         * {@link ParsedDynamicPlaceholder} keeps its case (e.g. the spacers in a stack
+         * definition).
+         *
+         * @param placeholder the placeholder
+         * @return the normalized placeholder
+         */
+        public String normalize(String placeholder) {
+            if (this.placeholder instanceof ParsedDynamicPlaceholder) {
+                return this.id + placeholder.substring(this.id.length());
+            }
+            return placeholder.toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * Extracts and parses the argument part of a placeholder matched by this entry.
+         *
+         * @param placeholder the placeholder, as returned by {@link #normalize(String)}
+         * @return the argument, or null if this is a static placeholder
+         */
+        public Object parseArgument(String placeholder) {
+            if (!this.dynamic) {
+                return null;
+            }
+
+            String argument = placeholder.substring(this.id.length());
+            if (this.placeholder instanceof ParsedDynamicPlaceholder) {
+                return ((ParsedDynamicPlaceholder<?>) this.placeholder).parse(argument);
+            }
+            return argument;
+        }
+
+        /**
+         * Evaluates the placeholder.
+         *
+         * @param player the player
+         * @param user the user
+         * @param userData the users cached data
+         * @param queryOptions the query options
+         * @param argument the argument, as returned by {@link #parseArgument(String)}
+         * @return the result
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public Object handle(Object player, User user, CachedDataManager userData, QueryOptions queryOptions, Object argument) {
+            if (this.placeholder instanceof ParsedDynamicPlaceholder) {
+                return ((ParsedDynamicPlaceholder) this.placeholder).handleParsed(player, user, userData, queryOptions, argument);
+            } else if (this.placeholder instanceof DynamicPlaceholder) {
+                return ((DynamicPlaceholder) this.placeholder).handle(player, user, userData, queryOptions, (String) argument);
+            } else {
+                return ((StaticPlaceholder) this.placeholder).handle(player, user, userData, queryOptions);
+            }
+        }
+
+        /**
+         * Evaluates the placeholder, if it is a {@link RelationalPlaceholder}.
+         *
+         * @param viewer the viewing user
+         * @param viewerGroups the viewers groups
+         * @param target the target user
+         * @param targetGroups the targets groups
+         * @param argument the argument, as returned by {@link #parseArgument(String)}
+         * @return the result
+         */
+        public Object handleRelational(User viewer, GroupSnapshot viewerGroups, User target, GroupSnapshot targetGroups, Object argument) {
+            return ((RelationalPlaceholder) this.placeholder).handle(viewer, viewerGroups, target, targetGroups, (String) argument);
+        }
+    }
+
+    /**
+     * A node in the (immutable) dynamic placeholder trie.
+     *
+     * <p>Child keys are kept sorted so they can be binary searched.</p>
+     */
+    private static final class TrieNode {
+        private static final char[] NO_KEYS = new char[0];
+        private static final TrieNode[] NO_CHILDREN = new TrieNode[0];
+
+        private final char[] keys;
+        private final TrieNode[] children;
+        private final Entry entry;
+
+        TrieNode(char[] keys, TrieNode[] children, Entry entry) {
+            this.keys = keys;
+            this.children = children;
+            this.entry = entry;
+        }
+
+        TrieNode child(char c) {
+            char[] keys = this.keys;
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char key = keys[mid];
+                if (key < c) {
+                    low = mid + 1;
+                } else if (key > c) {
+                    high = mid - 1;
+                } else {
+                    return this.children[mid];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Mutable equivalent of {@link TrieNode}, used while building.
+     */
+    private static final class TrieNodeBuilder {
+        private final TreeMap<Character, TrieNodeBuilder> children = new TreeMap<>();
+        private Entry entry;
+
+        void insert(Entry entry) {
+            String id = entry.getId();
+            TrieNodeBuilder node = this;
+            for (int i = 0; i < id.length(); i++) {
+                node = node.children.computeIfAbsent(id.charAt(i), c -> new TrieNodeBuilder());
+            }
+            node.entry = entry;
+        }
+
+        TrieNode build() {
+            if (this.children.isEmpty()) {
+                return new TrieNode(TrieNode.NO_KEYS, TrieNode.NO_CHILDREN, this.entry);
+            }
+
+            char[] keys = new char[this.children.size()];
+            TrieNode[] children = new TrieNode[this.children.size()];
+            int i = 0;
+            for (Map.Entry<Character, TrieNodeBuilder> child : this.children.entrySet()) {
+                keys[i] = child.getKey();
+                children[i] = child.getValue().build();
+                i++;
+            }
+            return new TrieNode(keys, children, this.entry);
+        }
+    }
+}
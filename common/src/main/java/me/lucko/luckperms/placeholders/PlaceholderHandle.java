@@ -0,0 +1,73 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import java.util.UUID;
+
+/**
+ * {@link CompiledPlaceholder} implementation for {@link LPPlaceholderProvider}.
+ */
+final class PlaceholderHandle implements CompiledPlaceholder {
+    private final LPPlaceholderProvider provider;
+    private final PlaceholderDispatcher.Entry entry;
+    private final String placeholder;
+    private final Object argument;
+
+    PlaceholderHandle(LPPlaceholderProvider provider, PlaceholderDispatcher.Entry entry, String placeholder) {
+        this.provider = provider;
+        this.entry = entry;
+        this.placeholder = entry.normalize(placeholder);
+        this.argument = entry.parseArgument(this.placeholder);
+    }
+
+    public PlaceholderDispatcher.Entry getEntry() {
+        return this.entry;
+    }
+
+    /**
+     * Gets the argument, as returned by {@link PlaceholderDispatcher.Entry#parseArgument(String)}.
+     *
+     * @return the argument
+     */
+    public Object getArgument() {
+        return this.argument;
+    }
+
+    @Override
+    public String getPlaceholder() {
+        return this.placeholder;
+    }
+
+    @Override
+    public String evaluate(Object player, UUID playerUuid) {
+        return this.provider.evaluate(this, player, playerUuid);
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceholderHandle(" + this.placeholder + ")";
+    }
+}
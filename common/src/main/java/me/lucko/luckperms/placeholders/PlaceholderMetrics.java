@@ -0,0 +1,285 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Records request counts, cache hits and latencies for each placeholder.
+ *
+ * <p>Metrics are disabled by default, in which case recording costs a single
+ * volatile read. They can be enabled with the {@value #ENABLED_PROPERTY} system
+ * property, through JMX, or with {@link PlaceholderProvider#setMetricsEnabled(boolean)}.</p>
+ */
+final class PlaceholderMetrics implements PlaceholderMetricsMXBean {
+    static final String OBJECT_NAME = "me.lucko.luckperms.placeholders:type=PlaceholderMetrics";
+    static final String ENABLED_PROPERTY = "luckperms.placeholders.metrics";
+
+    /**
+     * The number of latency buckets. Bucket {@code i} holds latencies between
+     * {@code 2^(i-1)} and {@code 2^i} nanoseconds, and the last holds everything longer.
+     */
+    private static final int BUCKETS = 32;
+
+    /**
+     * Used to give each instance its own object name, so providers registered by
+     * different plugins don't replace each other
+     */
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    /**
+     * The stats for each placeholder, keyed by id. Immutable once constructed
+     */
+    private final Map<String, Stats> stats;
+    private final LongAdder unknown = new LongAdder();
+    private volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    private ObjectName objectName;
+
+    PlaceholderMetrics(Iterable<String> ids) {
+        Map<String, Stats> stats = new HashMap<>();
+        for (String id : ids) {
+            stats.put(id, new Stats(id));
+        }
+        this.stats = stats;
+    }
+
+    /**
+     * Gets the stats for a placeholder, if metrics are enabled.
+     *
+     * @param id the placeholder id
+     * @return the stats, or null if metrics are disabled
+     */
+    public Stats get(String id) {
+        return this.enabled ? this.stats.get(id) : null;
+    }
+
+    /**
+     * Records a request for a placeholder which is not registered.
+     */
+    public void recordUnknown() {
+        if (this.enabled) {
+            this.unknown.increment();
+        }
+    }
+
+    /**
+     * Registers this with the platform MBean server, under a name unique to this instance.
+     */
+    public void register() {
+        if (this.objectName != null) {
+            return;
+        }
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME + ",instance=" + INSTANCES.incrementAndGet());
+            server.registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException | SecurityException e) {
+            // JMX isn't available - metrics can still be accessed through the provider
+        }
+    }
+
+    /**
+     * Unregisters this from the platform MBean server, if it was registered.
+     */
+    public void unregister() {
+        ObjectName objectName = this.objectName;
+        if (objectName == null) {
+            return;
+        }
+        this.objectName = null;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException | SecurityException e) {
+            // ignore
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void reset() {
+        for (Stats stats : this.stats.values()) {
+            stats.reset();
+        }
+        this.unknown.reset();
+    }
+
+    @Override
+    public long getRequests() {
+        long requests = 0;
+        for (Stats stats : this.stats.values()) {
+            requests += stats.getRequests();
+        }
+        return requests;
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = 0;
+        long misses = 0;
+        for (Stats stats : this.stats.values()) {
+            hits += stats.hits.sum();
+            misses += stats.misses.sum();
+        }
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public long getUnknownRequests() {
+        return this.unknown.sum();
+    }
+
+    @Override
+    public String dump() {
+        List<Stats> stats = new ArrayList<>(this.stats.values());
+        stats.removeIf(s -> s.getRequests() == 0 && s.prewarmed.sum() == 0);
+        stats.sort(Comparator.comparingLong((Stats s) -> s.nanos.sum()).reversed());
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-36s %10s %10s %10s %10s %10s %12s %10s %10s %10s%n",
+                "placeholder", "requests", "hits", "misses", "uncached", "prewarmed", "total ms", "mean us", "p50 us", "p99 us"));
+        for (Stats s : stats) {
+            long requests = s.getRequests();
+            long nanos = s.nanos.sum();
+            sb.append(String.format("%-36s %10d %10d %10d %10d %10d %12.1f %10.2f %10.2f %10.2f%n",
+                    s.id, requests, s.hits.sum(), s.misses.sum(), s.uncached.sum(), s.prewarmed.sum(),
+                    nanos / 1e6, requests == 0 ? 0 : nanos / 1e3 / requests, s.percentile(0.5) / 1e3, s.percentile(0.99) / 1e3));
+        }
+        sb.append(String.format("%nrequests: %d, hit rate: %.1f%%, unknown placeholders: %d, enabled: %s%n",
+                getRequests(), getHitRate() * 100, this.unknown.sum(), this.enabled));
+        return sb.toString();
+    }
+
+    /**
+     * The metrics for a single placeholder.
+     */
+    static final class Stats {
+        private final String id;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder uncached = new LongAdder();
+        private final LongAdder prewarmed = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder[] latencies = new LongAdder[BUCKETS];
+
+        Stats(String id) {
+            this.id = id;
+            for (int i = 0; i < BUCKETS; i++) {
+                this.latencies[i] = new LongAdder();
+            }
+        }
+
+        public void recordHit(long nanos) {
+            this.hits.increment();
+            recordLatency(nanos);
+        }
+
+        public void recordMiss(long nanos) {
+            this.misses.increment();
+            recordLatency(nanos);
+        }
+
+        public void recordUncached(long nanos) {
+            this.uncached.increment();
+            recordLatency(nanos);
+        }
+
+        public void recordPrewarmed() {
+            this.prewarmed.increment();
+        }
+
+        private void recordLatency(long nanos) {
+            this.nanos.add(nanos);
+            this.latencies[Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKETS - 1)].increment();
+        }
+
+        long getRequests() {
+            return this.hits.sum() + this.misses.sum() + this.uncached.sum();
+        }
+
+        /**
+         * Estimates a latency percentile, as the upper bound of the bucket it falls in.
+         *
+         * @param percentile the percentile, between 0 and 1
+         * @return the latency in nanoseconds
+         */
+        long percentile(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = this.latencies[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long target = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        void reset() {
+            this.hits.reset();
+            this.misses.reset();
+            this.uncached.reset();
+            this.prewarmed.reset();
+            this.nanos.reset();
+            for (LongAdder latency : this.latencies) {
+                latency.reset();
+            }
+        }
+    }
+}
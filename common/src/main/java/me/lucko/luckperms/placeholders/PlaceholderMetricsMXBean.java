@@ -0,0 +1,82 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+/**
+ * Management interface for placeholder metrics, registered with the platform
+ * MBean server as {@value PlaceholderMetrics#OBJECT_NAME}, with an
+ * {@code instance} key to tell providers in the same JVM apart.
+ */
+public interface PlaceholderMetricsMXBean {
+
+    /**
+     * Gets if metrics are being recorded.
+     *
+     * @return true if enabled
+     */
+    boolean isEnabled();
+
+    /**
+     * Sets if metrics should be recorded.
+     *
+     * @param enabled true to enable
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Resets all recorded metrics.
+     */
+    void reset();
+
+    /**
+     * Gets the total number of placeholder requests recorded.
+     *
+     * @return the number of requests
+     */
+    long getRequests();
+
+    /**
+     * Gets the proportion of cacheable requests which were served from cache.
+     *
+     * @return the hit rate, between 0 and 1
+     */
+    double getHitRate();
+
+    /**
+     * Gets the number of requests for placeholders which are not registered.
+     *
+     * @return the number of requests
+     */
+    long getUnknownRequests();
+
+    /**
+     * Gets a table of the recorded metrics for each placeholder.
+     *
+     * @return the metrics, as text
+     */
+    String dump();
+
+}
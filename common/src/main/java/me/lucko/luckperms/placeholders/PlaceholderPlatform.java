@@ -25,6 +25,8 @@
 
 package me.lucko.luckperms.placeholders;
 
+import java.util.UUID;
+
 /**
  * Encapsulates platform specific placeholder behaviour
  */
@@ -40,4 +42,42 @@ public interface PlaceholderPlatform {
         return Boolean.toString(value);
     }
 
+    /**
+     * Gets the unique id of a platform player object.
+     *
+     * @param player the player
+     * @return the players unique id, or null if the object isn't a player
+     */
+    default UUID getUniqueId(Object player) {
+        return null;
+    }
+
+    /**
+     * Gets if a platform player object represents a player who is online.
+     *
+     * <p>Placeholders for offline players are resolved using a user loaded
+     * asynchronously from storage, and the static contexts.</p>
+     *
+     * @param player the player
+     * @return true if the player is online
+     */
+    default boolean isOnline(Object player) {
+        return true;
+    }
+
+    /**
+     * Gets the platform player object for an online player.
+     *
+     * <p>This may be called from any thread, but the player returned is only used
+     * on the calling thread. Platforms which can't look up players by unique id
+     * return null, and placeholders are only computed in the background for players
+     * who have already requested one.</p>
+     *
+     * @param uniqueId the players unique id
+     * @return the player, or null if they aren't online
+     */
+    default Object getPlayer(UUID uniqueId) {
+        return null;
+    }
+
 }
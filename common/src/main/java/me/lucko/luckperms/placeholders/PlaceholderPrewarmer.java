@@ -0,0 +1,221 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.query.QueryOptions;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recomputes the most frequently requested placeholders for a user in the
+ * background, after their data changes, so that requests made from the main
+ * thread can be served from cache.
+ *
+ * <p>The set of placeholders to compute is learned from recent requests - each
+ * time it is recalculated, the request counts are halved, so placeholders which
+ * stop being requested eventually drop out.</p>
+ */
+final class PlaceholderPrewarmer implements DataChangeListener, AutoCloseable {
+
+    /**
+     * The maximum number of placeholders to compute for each user.
+     */
+    private static final int MAX_PLACEHOLDERS = 32;
+
+    /**
+     * The number of requests a placeholder needs before it is computed ahead of time.
+     */
+    private static final long MIN_REQUESTS = 2;
+
+    /**
+     * How often the set of placeholders to compute is recalculated.
+     */
+    private static final long RECALCULATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * The maximum number of distinct placeholders to count, before the counts are reset.
+     */
+    private static final int MAX_COUNTERS = 1024;
+
+    private final LPPlaceholderProvider provider;
+    private final ExecutorService executor = BackgroundExecutor.create("prewarm", 2, 512);
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * The query options to use for each user with a scheduled run, captured when it was scheduled
+     */
+    private final Map<UUID, QueryOptions> pending = new ConcurrentHashMap<>();
+
+    private volatile List<PlaceholderHandle> placeholders = List.of();
+    private volatile long placeholdersCalculated = System.nanoTime();
+
+    PlaceholderPrewarmer(LPPlaceholderProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Records a request for a (cacheable) placeholder.
+     *
+     * @param handle the placeholder
+     */
+    public void record(PlaceholderHandle handle) {
+        Counter counter = this.counters.get(handle.getPlaceholder());
+        if (counter == null) {
+            if (this.counters.size() >= MAX_COUNTERS) {
+                this.counters.clear();
+            }
+            counter = this.counters.computeIfAbsent(handle.getPlaceholder(), x -> new Counter(handle));
+        }
+        counter.requests.increment();
+    }
+
+    /**
+     * Gets the placeholders which should be computed ahead of time.
+     *
+     * @return the placeholders
+     */
+    private synchronized List<PlaceholderHandle> getPlaceholders() {
+        long now = System.nanoTime();
+        if (now - this.placeholdersCalculated < RECALCULATE_INTERVAL_NANOS) {
+            return this.placeholders;
+        }
+        this.placeholdersCalculated = now;
+
+        List<Counter> counters = new ArrayList<>();
+        for (Counter counter : this.counters.values()) {
+            counter.snapshot = counter.requests.sumThenReset();
+            counter.requests.add(counter.snapshot / 2);
+            if (counter.snapshot >= MIN_REQUESTS) {
+                counters.add(counter);
+            }
+        }
+        counters.sort(Comparator.comparingLong((Counter c) -> c.snapshot).reversed());
+
+        List<PlaceholderHandle> placeholders = new ArrayList<>(Math.min(counters.size(), MAX_PLACEHOLDERS));
+        for (int i = 0; i < counters.size() && i < MAX_PLACEHOLDERS; i++) {
+            placeholders.add(counters.get(i).handle);
+        }
+
+        this.placeholders = placeholders;
+        return placeholders;
+    }
+
+    /**
+     * Schedules the placeholders for a user to be computed, unless they already are.
+     *
+     * <p>The query options are obtained here, on the thread which posted the change,
+     * rather than by the background thread.</p>
+     *
+     * @param uniqueId the users unique id
+     */
+    private void schedule(UUID uniqueId) {
+        QueryOptions queryOptions = this.provider.getBackgroundQueryOptions(uniqueId);
+        if (queryOptions == null) {
+            return;
+        }
+
+        // if a run is already scheduled, it'll use the latest query options
+        if (this.pending.put(uniqueId, queryOptions) != null) {
+            return;
+        }
+
+        try {
+            this.executor.execute(() -> run(uniqueId));
+        } catch (RejectedExecutionException e) {
+            // the queue is full, or we've been closed - the values will be computed
+            // when they're requested instead
+            this.pending.remove(uniqueId);
+        }
+    }
+
+    private void run(UUID uniqueId) {
+        // remove before computing, so changes made while computing schedule another run
+        QueryOptions queryOptions = this.pending.remove(uniqueId);
+        if (queryOptions == null) {
+            return;
+        }
+
+        List<PlaceholderHandle> placeholders = getPlaceholders();
+        if (placeholders.isEmpty()) {
+            return;
+        }
+
+        try {
+            this.provider.prewarm(uniqueId, queryOptions, placeholders);
+        } catch (RuntimeException e) {
+            // ignore - the same error will occur when the placeholder is requested,
+            // and be reported by the placeholder plugin
+        }
+    }
+
+    @Override
+    public void onUserDataChange(UUID uniqueId) {
+        schedule(uniqueId);
+    }
+
+    @Override
+    public void onUserLoad(UUID uniqueId) {
+        schedule(uniqueId);
+    }
+
+    @Override
+    public void onUserUnload(UUID uniqueId) {
+        this.pending.remove(uniqueId);
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+        this.pending.clear();
+    }
+
+    /**
+     * Counts requests for a placeholder.
+     */
+    private static final class Counter {
+        private final PlaceholderHandle handle;
+        private final LongAdder requests = new LongAdder();
+
+        /**
+         * The request count when the placeholders were last recalculated, used for sorting
+         */
+        private long snapshot;
+
+        Counter(PlaceholderHandle handle) {
+            this.handle = handle;
+        }
+    }
+}
@@ -25,6 +25,7 @@
 
 package me.lucko.luckperms.placeholders;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.UUID;
 
@@ -35,6 +36,131 @@ public interface PlaceholderProvider {
 
     String onPlaceholderRequest(Object player, UUID playerUuid, String placeholder);
 
+    /**
+     * Resolves a placeholder contained within a region of some text, e.g. the part
+     * of a {@code %luckperms_...%} token after the prefix.
+     *
+     * <p>The placeholder is looked up in place, so no strings are created unless
+     * it hasn't been seen before (in the same case). Like the other methods, the
+     * placeholder's id is matched ignoring case.</p>
+     *
+     * @param player the player
+     * @param playerUuid the players unique id
+     * @param text the text containing the placeholder
+     * @param start the index the placeholder starts at
+     * @param end the index the placeholder ends at (exclusive)
+     * @return the result, or null if the placeholder is unknown
+     */
+    String onPlaceholderRequest(Object player, UUID playerUuid, CharSequence text, int start, int end);
+
+    /**
+     * Resolves a relational placeholder, which compares a target player to the
+     * player viewing them (e.g. whether the target outranks the viewer).
+     *
+     * <p>Results are cached per pair of players until either player's data
+     * changes, so resolving every pair of online players is cheap.</p>
+     *
+     * @param viewer the viewing player
+     * @param viewerUuid the viewing players unique id
+     * @param target the target player
+     * @param targetUuid the target players unique id
+     * @param placeholder the placeholder
+     * @return the result, or null if the placeholder is unknown
+     */
+    String onRelationalPlaceholderRequest(Object viewer, UUID viewerUuid, Object target, UUID targetUuid, String placeholder);
+
+    /**
+     * Compiles a placeholder into a handle which can be evaluated repeatedly,
+     * without parsing and matching the placeholder each time.
+     *
+     * @param placeholder the placeholder
+     * @return the compiled placeholder, or null if the placeholder is unknown
+     */
+    CompiledPlaceholder compile(String placeholder);
+
+    /**
+     * Compiles a piece of text containing {@code %luckperms_...%} placeholders into
+     * a template which can be rendered repeatedly, without parsing the text and
+     * matching the placeholders each time.
+     *
+     * <p>Any other text, including placeholders which aren't recognised, is
+     * rendered as-is.</p>
+     *
+     * @param template the template text
+     * @return the compiled template
+     */
+    CompiledTemplate compileTemplate(String template);
+
+    /**
+     * Resolves a number of placeholders for the same player.
+     *
+     * <p>The user, their cached data and query options are looked up once, and
+     * shared between all of the placeholders, so the results are consistent
+     * with each other.</p>
+     *
+     * @param player the player
+     * @param playerUuid the players unique id
+     * @param placeholders the placeholders to resolve
+     * @return the results, keyed by placeholder, in iteration order. unknown
+     *         placeholders map to null
+     */
+    Map<String, String> resolveAll(Object player, UUID playerUuid, Collection<String> placeholders);
+
+    /**
+     * Subscribes to changes in the value of a placeholder for a player.
+     *
+     * <p>The placeholder is recomputed in the background when LuckPerms data
+     * which could affect it changes, and the listener is called only if the value
+     * is different. This avoids having to request the placeholder repeatedly to
+     * detect changes. Placeholders which count online players are also recomputed
+     * when a player joins or quits.</p>
+     *
+     * <p>The subscription ends when it is closed, or when the player's user is
+     * unloaded by LuckPerms (usually when they log out). If the user isn't loaded,
+     * they are loaded, and the subscription ends if that fails.</p>
+     *
+     * @param player the player
+     * @param playerUuid the players unique id
+     * @param placeholder the placeholder
+     * @param listener the listener
+     * @return the subscription, or null if the placeholder is unknown
+     */
+    PlaceholderSubscription subscribe(Object player, UUID playerUuid, String placeholder, PlaceholderListener listener);
+
+    /**
+     * Called by the platform when a player has joined, so that they are counted
+     * as online. Players who are already online when the provider is created
+     * are counted without this.
+     *
+     * @param playerUuid the players unique id
+     */
+    void onPlayerJoin(UUID playerUuid);
+
+    /**
+     * Called by the platform when a player quits, so that data kept for online
+     * players (e.g. the online counts) is updated straight away, rather than when
+     * LuckPerms unloads their user.
+     *
+     * @param playerUuid the players unique id
+     */
+    void onPlayerQuit(UUID playerUuid);
+
     Map<String, Placeholder> getPlaceholders();
 
+    /**
+     * Sets if request counts, cache hit rates and latencies should be recorded
+     * for each placeholder. Metrics are disabled by default.
+     *
+     * @param enabled true to enable metrics
+     */
+    void setMetricsEnabled(boolean enabled);
+
+    /**
+     * Gets a table of the recorded metrics for each placeholder, ordered by the
+     * total time spent handling requests.
+     *
+     * @return the metrics, as text
+     */
+    String dumpMetrics();
+
 }
@@ -0,0 +1,72 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import java.util.UUID;
+
+/**
+ * A subscription to changes in the value of a placeholder for a player.
+ *
+ * @see PlaceholderProvider#subscribe(Object, UUID, String, PlaceholderListener)
+ */
+public interface PlaceholderSubscription extends AutoCloseable {
+
+    /**
+     * Gets the unique id of the player the subscription is for.
+     *
+     * @return the players unique id
+     */
+    UUID getUniqueId();
+
+    /**
+     * Gets the (normalized) placeholder the subscription is for.
+     *
+     * @return the placeholder
+     */
+    String getPlaceholder();
+
+    /**
+     * Gets the current value of the placeholder.
+     *
+     * @return the value
+     */
+    String getValue();
+
+    /**
+     * Gets if the subscription is still active. Subscriptions end when they are
+     * closed, or when the player's user is unloaded (usually when they log out).
+     *
+     * @return true if active
+     */
+    boolean isActive();
+
+    /**
+     * Ends the subscription.
+     */
+    @Override
+    void close();
+
+}
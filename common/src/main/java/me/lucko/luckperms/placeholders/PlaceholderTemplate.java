@@ -0,0 +1,170 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The implementation of {@link CompiledTemplate}.
+ *
+ * <p>The template is stored as an array of segments, each of which is either a
+ * literal {@link String}, or a {@link Token}. Tokens which don't belong to LuckPerms
+ * (e.g. {@code %player%}), or which don't match a known placeholder, are kept as
+ * literal text so they can be handled by something else.</p>
+ */
+final class PlaceholderTemplate implements CompiledTemplate {
+    private static final String PREFIX = "luckperms_";
+
+    /**
+     * Parses a template.
+     *
+     * @param provider the provider to compile placeholders with
+     * @param template the template text
+     * @return the parsed template
+     */
+    static PlaceholderTemplate parse(LPPlaceholderProvider provider, String template) {
+        List<Object> segments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int literalLength = 0;
+
+        int i = 0;
+        int length = template.length();
+        while (i < length) {
+            int start = template.indexOf('%', i);
+            int end = start == -1 ? -1 : template.indexOf('%', start + 1);
+            if (end == -1) {
+                literal.append(template, i, length);
+                break;
+            }
+
+            literal.append(template, i, start);
+
+            PlaceholderHandle handle = null;
+            if (template.regionMatches(true, start + 1, PREFIX, 0, PREFIX.length())) {
+                handle = provider.compile(template.substring(start + 1 + PREFIX.length(), end));
+            }
+
+            if (handle == null) {
+                // not one of ours - keep the text as a literal and carry on from the
+                // closing '%', as it may be the start of the next token
+                literal.append(template, start, end);
+                i = end;
+                continue;
+            }
+
+            if (literal.length() != 0) {
+                literalLength += literal.length();
+                segments.add(literal.toString());
+                literal.setLength(0);
+            }
+            segments.add(new Token(handle, template.substring(start, end + 1)));
+            i = end + 1;
+        }
+
+        if (literal.length() != 0) {
+            literalLength += literal.length();
+            segments.add(literal.toString());
+        }
+
+        return new PlaceholderTemplate(provider, template, segments.toArray(), literalLength);
+    }
+
+    private final LPPlaceholderProvider provider;
+    private final String template;
+    private final Object[] segments;
+
+    /**
+     * The length of the most recent render, used to size the next builder
+     */
+    private volatile int expectedLength;
+
+    private PlaceholderTemplate(LPPlaceholderProvider provider, String template, Object[] segments, int literalLength) {
+        this.provider = provider;
+        this.template = template;
+        this.segments = segments;
+        this.expectedLength = literalLength + 16 * (segments.length - 1);
+    }
+
+    /**
+     * Gets the segments of this template. Each is either a {@link String} or a {@link Token}.
+     *
+     * @return the segments
+     */
+    Object[] getSegments() {
+        return this.segments;
+    }
+
+    @Override
+    public String getTemplate() {
+        return this.template;
+    }
+
+    @Override
+    public String render(Object player, UUID playerUuid) {
+        StringBuilder builder = new StringBuilder(this.expectedLength);
+        renderTo(player, playerUuid, builder);
+        this.expectedLength = builder.length();
+        return builder.toString();
+    }
+
+    @Override
+    public void renderTo(Object player, UUID playerUuid, StringBuilder builder) {
+        this.provider.render(this, player, playerUuid, builder);
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceholderTemplate(" + this.template + ")";
+    }
+
+    /**
+     * A placeholder within a template.
+     */
+    static final class Token {
+        private final PlaceholderHandle handle;
+        private final String text;
+
+        Token(PlaceholderHandle handle, String text) {
+            this.handle = handle;
+            this.text = text;
+        }
+
+        public PlaceholderHandle getHandle() {
+            return this.handle;
+        }
+
+        /**
+         * Gets the original text of the token, including the surrounding '%'s.
+         *
+         * @return the text
+         */
+        public String getText() {
+            return this.text;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.query.QueryOptions;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches relational placeholder results per viewer, target and placeholder.
+ *
+ * <p>The number of pairs grows with the square of the player count, so instead
+ * of finding and dropping every pair a change affects, each pair of results is
+ * tagged with the data versions of both players (and of the global group/track
+ * data) it was computed from, and is replaced when it is next requested if any
+ * of them have changed.</p>
+ *
+ * <p>Results also depend on each player's current contexts, so they are tagged
+ * with the {@link QueryOptions} of both players too.</p>
+ */
+final class RelationalCache implements DataChangeListener {
+
+    /**
+     * The maximum number of targets cached for a single viewer, before they are all dropped.
+     */
+    private static final int MAX_TARGETS_PER_VIEWER = 1024;
+
+    /**
+     * The maximum number of values cached for a single pair, before they are all dropped.
+     */
+    private static final int MAX_VALUES_PER_PAIR = 64;
+
+    /**
+     * Source of versions - every change is given a new, unique version
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * The version of the data shared by all players (groups, tracks, contexts)
+     */
+    private volatile long globalVersion;
+
+    /**
+     * The version of each user's data. Users without an entry are at version 0.
+     */
+    private final Map<UUID, Long> versions = new ConcurrentHashMap<>();
+
+    private final Map<UUID, ViewerValues> viewers = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the cached values for the given viewer and target.
+     *
+     * <p>Callers should obtain the {@link Values} <b>before</b> computing a value to
+     * put into it. If the data changes while the value is being computed, the
+     * (possibly stale) value will be written to an instance tagged with the old
+     * versions, which will be replaced on the next request.</p>
+     *
+     * @param viewer the viewers unique id
+     * @param viewerOptions the viewers query options
+     * @param target the targets unique id
+     * @param targetOptions the targets query options
+     * @return the values
+     */
+    public Values values(UUID viewer, QueryOptions viewerOptions, UUID target, QueryOptions targetOptions) {
+        long globalVersion = this.globalVersion;
+        long viewerVersion = version(viewer);
+        long targetVersion = version(target);
+
+        ViewerValues values = this.viewers.get(viewer);
+        if (values == null) {
+            values = this.viewers.computeIfAbsent(viewer, x -> new ViewerValues());
+        }
+        return values.values(target, globalVersion, viewerVersion, viewerOptions, targetVersion, targetOptions);
+    }
+
+    private long version(UUID uniqueId) {
+        Long version = this.versions.get(uniqueId);
+        return version == null ? 0 : version;
+    }
+
+    private void invalidate(UUID uniqueId) {
+        this.versions.put(uniqueId, this.sequence.incrementAndGet());
+    }
+
+    private void invalidateAll() {
+        this.globalVersion = this.sequence.incrementAndGet();
+    }
+
+    @Override
+    public void onUserDataChange(UUID uniqueId) {
+        invalidate(uniqueId);
+    }
+
+    @Override
+    public void onGroupDataChange() {
+        invalidateAll();
+    }
+
+    @Override
+    public void onTrackDataChange() {
+        invalidateAll();
+    }
+
+    @Override
+    public void onContextChange(UUID uniqueId) {
+        if (uniqueId == null) {
+            invalidateAll();
+        } else {
+            invalidate(uniqueId);
+        }
+    }
+
+    @Override
+    public void onUserLoad(UUID uniqueId) {
+        // results computed while the user wasn't loaded must not be reused
+        invalidate(uniqueId);
+    }
+
+    @Override
+    public void onUserUnload(UUID uniqueId) {
+        this.versions.remove(uniqueId);
+        this.viewers.remove(uniqueId);
+        for (ViewerValues values : this.viewers.values()) {
+            values.targets.remove(uniqueId);
+        }
+    }
+
+    /**
+     * The cached values for a single viewer.
+     */
+    private static final class ViewerValues {
+        private final Map<UUID, Values> targets = new ConcurrentHashMap<>();
+
+        Values values(UUID target, long globalVersion, long viewerVersion, QueryOptions viewerOptions, long targetVersion, QueryOptions targetOptions) {
+            Values values = this.targets.get(target);
+            if (values == null || !values.isSource(globalVersion, viewerVersion, viewerOptions, targetVersion, targetOptions)) {
+                if (this.targets.size() >= MAX_TARGETS_PER_VIEWER) {
+                    this.targets.clear();
+                }
+                values = new Values(globalVersion, viewerVersion, viewerOptions, targetVersion, targetOptions);
+                this.targets.put(target, values);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * The cached values for a single viewer and target, at a given set of versions
+     * and query options.
+     */
+    static final class Values {
+        private final long globalVersion;
+        private final long viewerVersion;
+        private final QueryOptions viewerOptions;
+        private final long targetVersion;
+        private final QueryOptions targetOptions;
+        private final Map<String, String> values = new ConcurrentHashMap<>();
+
+        Values(long globalVersion, long viewerVersion, QueryOptions viewerOptions, long targetVersion, QueryOptions targetOptions) {
+            this.globalVersion = globalVersion;
+            this.viewerVersion = viewerVersion;
+            this.viewerOptions = viewerOptions;
+            this.targetVersion = targetVersion;
+            this.targetOptions = targetOptions;
+        }
+
+        boolean isSource(long globalVersion, long viewerVersion, QueryOptions viewerOptions, long targetVersion, QueryOptions targetOptions) {
+            return this.globalVersion == globalVersion
+                    && this.viewerVersion == viewerVersion
+                    && this.targetVersion == targetVersion
+                    && Objects.equals(this.viewerOptions, viewerOptions)
+                    && Objects.equals(this.targetOptions, targetOptions);
+        }
+
+        /**
+         * Gets a cached value.
+         *
+         * @param placeholder the placeholder, as requested
+         * @return the value, or null if not cached
+         */
+        public String get(String placeholder) {
+            return this.values.get(placeholder);
+        }
+
+        /**
+         * Caches a value.
+         *
+         * @param placeholder the placeholder, as requested
+         * @param value the value
+         */
+        public void put(String placeholder, String value) {
+            if (this.values.size() >= MAX_VALUES_PER_PAIR) {
+                this.values.clear();
+            }
+            this.values.put(placeholder, value);
+        }
+    }
+}
@@ -0,0 +1,645 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Persists the most recently computed value of each placeholder for each user
+ * to a local, memory-mapped file, so values can be served after a restart while
+ * users are still being loaded.
+ *
+ * <p>The store is disabled unless the {@value #PATH_PROPERTY} system property is
+ * set to the path of the file to use. The file is locked while it is in use - if
+ * another provider (in this or another process) already has it locked, the store
+ * is disabled.</p>
+ *
+ * <p>The file is append-only: a changed value is written as a new record, which
+ * supersedes the previous one. Once the file is full, it is compacted in place
+ * by rewriting only the latest record for each key.</p>
+ *
+ * <p>The file starts with a header containing a magic number and the format
+ * version. Files with a different version are discarded. Each record is
+ * checksummed, and reading stops at the first invalid record, so a partially
+ * written record (e.g. after a crash) only loses that record and any after it.</p>
+ *
+ * <p>The file is read, and written to, by a single background task. Values to
+ * write are queued (only the latest value for each key is kept), so storing a
+ * value never waits for I/O. Reads never wait either: until the file has been
+ * read, or while the background task is modifying the same user's values, reads
+ * find nothing.</p>
+ *
+ * <p>Users are split between a number of locks, so appending a value for one
+ * user doesn't stop reads for others. Only compacting or growing the file takes
+ * every lock.</p>
+ *
+ * <p>Any I/O error disables the store - placeholders are then resolved as if it
+ * didn't exist.</p>
+ */
+final class SnapshotStore implements AutoCloseable {
+    static final String PATH_PROPERTY = "luckperms.placeholders.snapshot";
+
+    private static final int MAGIC = 0x4C505053; // "LPPS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * The size of the fixed part of a record: length, checksum, uuid and key length
+     */
+    private static final int RECORD_OVERHEAD = 4 + 4 + 16 + 2 + 4;
+
+    private static final int INITIAL_SIZE = 1024 * 1024;
+    private static final int MAX_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The maximum number of values waiting to be written. Values stored while the
+     * queue is full are dropped, and written the next time they are computed.
+     */
+    private static final int MAX_PENDING = 4096;
+
+    /**
+     * How long to wait for queued values to be written when closing.
+     */
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    /**
+     * The number of locks users are split between. Must be a power of two.
+     */
+    private static final int STRIPES = 16;
+
+    /**
+     * Opens the store at the path given by the {@value #PATH_PROPERTY} system property,
+     * and starts reading it in the background.
+     *
+     * @return the store, or null if it is disabled
+     */
+    static SnapshotStore open() {
+        String path = System.getProperty(PATH_PROPERTY);
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+
+        SnapshotStore store = new SnapshotStore(Paths.get(path));
+        store.schedule();
+        return store;
+    }
+
+    private final Path path;
+    private final ExecutorService executor = BackgroundExecutor.create("snapshot", 1, 1);
+
+    /**
+     * Guard the index entries of the users they are assigned to. The buffer and the
+     * index itself are only replaced while holding all of them. Only the background
+     * task writes, and it only takes a write lock while modifying what it guards, so
+     * it can read without locking
+     */
+    private final ReadWriteLock[] locks = new ReadWriteLock[STRIPES];
+
+    /**
+     * Values waiting to be written by the background task
+     */
+    private final Map<Key, String> pending = new ConcurrentHashMap<>();
+
+    /**
+     * If the background task is scheduled or running
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private FileChannel channel;
+    private FileLock fileLock;
+    private MappedByteBuffer buffer;
+
+    /**
+     * The offset of the latest record for each key. Each user's map is guarded by their lock
+     */
+    private Map<UUID, Map<String, Integer>> index;
+
+    /**
+     * The position the next record will be written at
+     */
+    private int end;
+
+    /**
+     * The total size of the records in the index
+     */
+    private int liveBytes;
+
+    private volatile boolean loaded;
+    private volatile boolean closed;
+
+    SnapshotStore(Path path) {
+        this.path = path;
+        for (int i = 0; i < STRIPES; i++) {
+            this.locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    private ReadWriteLock lock(UUID uniqueId) {
+        int hash = uniqueId.hashCode();
+        return this.locks[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private void lockAll() {
+        for (ReadWriteLock lock : this.locks) {
+            lock.writeLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (ReadWriteLock lock : this.locks) {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the stored value of a placeholder for a user.
+     *
+     * @param uniqueId the users unique id
+     * @param placeholder the (lowercase) placeholder
+     * @return the value, or null if there isn't one, or it can't be read right now
+     */
+    public String get(UUID uniqueId, String placeholder) {
+        if (!this.loaded || this.closed) {
+            return null;
+        }
+
+        String value = this.pending.get(new Key(uniqueId, placeholder));
+        if (value != null) {
+            return value;
+        }
+
+        // don't wait for the background task to finish writing
+        ReadWriteLock lock = lock(uniqueId);
+        if (!lock.readLock().tryLock()) {
+            return null;
+        }
+        try {
+            if (this.closed) {
+                return null;
+            }
+            Integer offset = getOffset(uniqueId, placeholder);
+            return offset == null ? null : readValue(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queues the value of a placeholder for a user to be stored, if it has changed.
+     *
+     * @param uniqueId the users unique id
+     * @param placeholder the (lowercase) placeholder
+     * @param value the value
+     */
+    public void put(UUID uniqueId, String placeholder, String value) {
+        if (this.closed || this.pending.size() >= MAX_PENDING) {
+            return;
+        }
+        this.pending.put(new Key(uniqueId, placeholder), value);
+        schedule();
+    }
+
+    /**
+     * Schedules the background task to run, unless it already is.
+     */
+    private void schedule() {
+        if (this.closed || !this.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            this.executor.execute(this::run);
+        } catch (RejectedExecutionException e) {
+            // closed
+            this.scheduled.set(false);
+        }
+    }
+
+    /**
+     * Reads the file if it hasn't been yet, then writes the queued values.
+     */
+    private void run() {
+        try {
+            if (!this.loaded) {
+                load();
+            }
+            writePending();
+        } finally {
+            this.scheduled.set(false);
+        }
+
+        // values queued after the last check, but before the flag was cleared
+        if (!this.pending.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private void load() {
+        lockAll();
+        try {
+            if (!this.closed) {
+                try {
+                    read();
+                } catch (IOException | OverlappingFileLockException e) {
+                    fail();
+                }
+            }
+            this.loaded = true;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    private void writePending() {
+        for (Map.Entry<Key, String> entry : this.pending.entrySet()) {
+            Key key = entry.getKey();
+            String value = entry.getValue();
+            if (this.closed) {
+                return;
+            }
+
+            if (!isStored(key.uniqueId, key.placeholder, value)) {
+                append(key.uniqueId, key.placeholder, value);
+            }
+
+            // keep the value if it was replaced while being written
+            this.pending.remove(key, value);
+        }
+    }
+
+    private Integer getOffset(UUID uniqueId, String placeholder) {
+        Map<String, Integer> values = this.index.get(uniqueId);
+        return values == null ? null : values.get(placeholder);
+    }
+
+    private boolean isStored(UUID uniqueId, String placeholder, String value) {
+        Integer offset = getOffset(uniqueId, placeholder);
+        return offset != null && value.equals(readValue(offset));
+    }
+
+    private void append(UUID uniqueId, String placeholder, String value) {
+        byte[] key = placeholder.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (key.length > Short.MAX_VALUE) {
+            return;
+        }
+        int length = RECORD_OVERHEAD + key.length + bytes.length;
+
+        if (this.end + length > this.buffer.capacity()) {
+            // compacting or growing moves records, so nothing can be read meanwhile
+            lockAll();
+            try {
+                if (this.closed || !ensureCapacity(length)) {
+                    return;
+                }
+            } catch (IOException e) {
+                fail();
+                return;
+            } finally {
+                unlockAll();
+            }
+        }
+
+        // nothing refers to the end of the file yet, so the record can be written
+        // without locking, and is then added to the index under the users lock
+        int offset = this.end;
+        writeRecord(offset, uniqueId, key, bytes);
+        this.end += length;
+        this.liveBytes += length;
+
+        ReadWriteLock lock = lock(uniqueId);
+        lock.writeLock().lock();
+        try {
+            Map<String, Integer> values = this.index.computeIfAbsent(uniqueId, x -> new HashMap<>());
+            Integer previous = values.put(placeholder, offset);
+            if (previous != null) {
+                this.liveBytes -= this.buffer.getInt(previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void writeRecord(int offset, UUID uniqueId, byte[] key, byte[] value) {
+        int length = RECORD_OVERHEAD + key.length + value.length;
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(length);
+        record.putInt(0); // checksum, filled in below
+        record.putLong(uniqueId.getMostSignificantBits());
+        record.putLong(uniqueId.getLeastSignificantBits());
+        record.putShort((short) key.length);
+        record.put(key);
+        record.putInt(value.length);
+        record.put(value);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, length - 8);
+        record.putInt(4, (int) crc.getValue());
+
+        // write the length last - the checksum catches records which were only partially flushed
+        write(offset + 4, record.array(), 4, length - 4);
+        this.buffer.putInt(offset, length);
+    }
+
+    private String readValue(int offset) {
+        int keyLength = this.buffer.getShort(offset + 24);
+        int valueOffset = offset + 26 + keyLength;
+        int valueLength = this.buffer.getInt(valueOffset);
+        byte[] value = new byte[valueLength];
+        read(valueOffset + 4, value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private void read() throws IOException {
+        Path parent = this.path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.fileLock = this.channel.tryLock();
+        if (this.fileLock == null) {
+            throw new IOException("snapshot file is locked by another process: " + this.path);
+        }
+
+        long size = this.channel.size();
+        map((int) Math.min(Math.max(size, INITIAL_SIZE), MAX_SIZE));
+        this.index = new ConcurrentHashMap<>();
+
+        if (size < HEADER_SIZE || this.buffer.getInt(0) != MAGIC || this.buffer.getInt(4) != VERSION) {
+            // new file, or written by an incompatible version
+            reset();
+            return;
+        }
+
+        int position = HEADER_SIZE;
+        int limit = this.buffer.capacity();
+        while (position + RECORD_OVERHEAD <= limit) {
+            int length = this.buffer.getInt(position);
+            if (length < RECORD_OVERHEAD || position + length > limit || !isValid(position, length)) {
+                break;
+            }
+
+            UUID uniqueId = new UUID(this.buffer.getLong(position + 8), this.buffer.getLong(position + 16));
+            byte[] key = new byte[this.buffer.getShort(position + 24)];
+            read(position + 26, key);
+
+            Integer previous = this.index.computeIfAbsent(uniqueId, x -> new HashMap<>()).put(new String(key, StandardCharsets.UTF_8), position);
+            if (previous != null) {
+                this.liveBytes -= this.buffer.getInt(previous);
+            }
+            this.liveBytes += length;
+            position += length;
+        }
+
+        // anything after the last valid record is discarded
+        this.end = position;
+        clear(position, limit);
+    }
+
+    private boolean isValid(int position, int length) {
+        byte[] record = new byte[length - 8];
+        read(position + 8, record);
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue() == this.buffer.getInt(position + 4);
+    }
+
+    /**
+     * Makes room for a record of the given length, by compacting or growing the file.
+     *
+     * @param length the length of the record
+     * @return true if there is room, false if the record is too large to store
+     */
+    private boolean ensureCapacity(int length) throws IOException {
+        if (this.end + length <= this.buffer.capacity()) {
+            return true;
+        }
+        if (HEADER_SIZE + length > MAX_SIZE) {
+            return false;
+        }
+
+        // compact if at least half of the file is superseded records, otherwise grow
+        if (this.liveBytes <= (this.end - HEADER_SIZE) / 2) {
+            compact();
+        }
+        if (this.end + length <= this.buffer.capacity()) {
+            return true;
+        }
+
+        long required = (long) this.end + length;
+        if (required > MAX_SIZE) {
+            compact();
+            if (this.end + length > MAX_SIZE) {
+                // everything stored is still live - start again
+                reset();
+            }
+            return this.end + length <= this.buffer.capacity();
+        }
+
+        map((int) Math.min(Math.max(required, (long) this.buffer.capacity() * 2), MAX_SIZE));
+        return true;
+    }
+
+    /**
+     * Rewrites the file in place, keeping only the latest record for each key.
+     */
+    private void compact() {
+        List<Integer> offsets = new ArrayList<>();
+        for (Map<String, Integer> values : this.index.values()) {
+            offsets.addAll(values.values());
+        }
+        // records only ever move towards the start of the file, so copying them
+        // in order never overwrites a record which hasn't been copied yet
+        offsets.sort(null);
+
+        Map<UUID, Map<String, Integer>> index = new ConcurrentHashMap<>();
+        int position = HEADER_SIZE;
+        for (int offset : offsets) {
+            int length = this.buffer.getInt(offset);
+            byte[] record = new byte[length];
+            read(offset, record);
+            write(position, record, 0, record.length);
+
+            UUID uniqueId = new UUID(this.buffer.getLong(position + 8), this.buffer.getLong(position + 16));
+            byte[] key = new byte[this.buffer.getShort(position + 24)];
+            read(position + 26, key);
+            index.computeIfAbsent(uniqueId, x -> new HashMap<>()).put(new String(key, StandardCharsets.UTF_8), position);
+
+            position += length;
+        }
+
+        clear(position, this.end);
+        this.index = index;
+        this.end = position;
+        this.liveBytes = position - HEADER_SIZE;
+    }
+
+    private void reset() {
+        clear(0, this.buffer.capacity());
+        this.buffer.putInt(0, MAGIC);
+        this.buffer.putInt(4, VERSION);
+        this.index.clear();
+        this.end = HEADER_SIZE;
+        this.liveBytes = 0;
+    }
+
+    private void clear(int from, int to) {
+        byte[] zeros = new byte[Math.min(to - from, 8192)];
+        for (int position = from; position < to; position += zeros.length) {
+            write(position, zeros, 0, Math.min(zeros.length, to - position));
+        }
+    }
+
+    // the absolute bulk get/put methods need Java 13. reads use a duplicate, as they
+    // happen concurrently, and writes use the buffer's position - only the background
+    // task writes
+
+    private void read(int offset, byte[] bytes) {
+        ByteBuffer buffer = this.buffer.duplicate();
+        buffer.position(offset);
+        buffer.get(bytes);
+    }
+
+    private void write(int offset, byte[] bytes, int from, int length) {
+        this.buffer.position(offset);
+        this.buffer.put(bytes, from, length);
+    }
+
+    private void map(int size) throws IOException {
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void fail() {
+        // stop using the store - the file will be read again (or discarded) on the next start
+        this.closed = true;
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        if (this.channel != null) {
+            try {
+                // closing the channel releases the lock
+                this.channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            this.channel = null;
+        }
+        this.fileLock = null;
+        this.buffer = null;
+        this.index = null;
+    }
+
+    /**
+     * Writes any queued values, waiting a short time for the background task to
+     * finish, and closes the file.
+     */
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        boolean terminated = false;
+        try {
+            terminated = this.executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        lockAll();
+        try {
+            if (this.closed) {
+                return;
+            }
+            // if the background task is stuck, drop the remaining values rather than race it
+            if (terminated && this.loaded && this.buffer != null) {
+                writePending();
+            }
+            if (this.buffer != null) {
+                this.buffer.force();
+            }
+            this.closed = true;
+            this.pending.clear();
+            closeChannel();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * The key of a value: a user and a placeholder.
+     */
+    private static final class Key {
+        private final UUID uniqueId;
+        private final String placeholder;
+
+        Key(UUID uniqueId, String placeholder) {
+            this.uniqueId = uniqueId;
+            this.placeholder = placeholder;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return this.uniqueId.equals(other.uniqueId) && this.placeholder.equals(other.placeholder);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.uniqueId, this.placeholder);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.query.QueryOptions;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Manages placeholder subscriptions, recomputing them when the LuckPerms data
+ * they could depend on changes, and notifying listeners when their value differs.
+ *
+ * <p>Subscriptions are recomputed in the background rather than on the thread
+ * which posted the change, and changes made while a user's subscriptions are
+ * waiting to be recomputed are coalesced. The query options to recompute with are
+ * obtained on the thread which posted the change, so the platform player is never
+ * used in the background.</p>
+ *
+ * <p>Placeholders which aren't cached are also recomputed when any player joins
+ * or quits, which is when the online counts change. Placeholders which change over
+ * time rather than with the data (e.g. the expiry placeholders) are not recomputed
+ * as time passes.</p>
+ */
+final class SubscriptionManager implements DataChangeListener {
+    private final LPPlaceholderProvider provider;
+    private final ExecutorService executor = BackgroundExecutor.create("subscriptions", 1, 1024);
+    private final Map<UUID, List<Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * Subscriptions to placeholders which aren't cached
+     */
+    private final Set<Subscription> uncached = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Users whose subscriptions are waiting to be recomputed
+     */
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * If every subscription is waiting to be recomputed
+     */
+    private final AtomicBoolean pendingAll = new AtomicBoolean();
+
+    /**
+     * If the subscriptions to placeholders which aren't cached are waiting to be recomputed
+     */
+    private final AtomicBoolean pendingUncached = new AtomicBoolean();
+
+    private volatile boolean closed;
+
+    SubscriptionManager(LPPlaceholderProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Subscribes to a placeholder.
+     *
+     * @param player the player
+     * @param uniqueId the players unique id
+     * @param handle the compiled placeholder
+     * @param listener the listener
+     * @return the subscription
+     */
+    public PlaceholderSubscription subscribe(Object player, UUID uniqueId, PlaceholderHandle handle, PlaceholderListener listener) {
+        Subscription subscription = new Subscription(uniqueId, handle, listener, this.provider.getQueryOptions(player, uniqueId));
+
+        // register before evaluating, so changes made while evaluating aren't missed.
+        // updates wait for the lock, and then recompute the value
+        synchronized (subscription) {
+            this.subscriptions.computeIfAbsent(uniqueId, x -> new CopyOnWriteArrayList<>()).add(subscription);
+            if (!handle.getEntry().isCacheable()) {
+                this.uncached.add(subscription);
+            }
+            subscription.value = handle.evaluate(player, uniqueId);
+        }
+
+        // subscriptions end when the user is unloaded, so make sure LuckPerms has
+        // them loaded - otherwise a subscription for a player who never logs in
+        // would never end
+        this.provider.loadUser(uniqueId).whenComplete((user, e) -> {
+            if (user == null) {
+                subscription.close();
+            }
+        });
+        return subscription;
+    }
+
+    private void remove(Subscription subscription) {
+        this.uncached.remove(subscription);
+        this.subscriptions.computeIfPresent(subscription.uniqueId, (uniqueId, list) -> {
+            list.remove(subscription);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    private void update(Iterable<Subscription> subscriptions) {
+        if (subscriptions == null) {
+            return;
+        }
+
+        // notify every listener, even if one of them throws
+        RuntimeException exception = null;
+        for (Subscription subscription : subscriptions) {
+            try {
+                subscription.update();
+            } catch (RuntimeException e) {
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private void updateAll() {
+        RuntimeException exception = null;
+        for (List<Subscription> subscriptions : this.subscriptions.values()) {
+            try {
+                update(subscriptions);
+            } catch (RuntimeException e) {
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Updates the query options a user's subscriptions are recomputed with. Called
+     * on the thread which posted the change.
+     *
+     * @param uniqueId the users unique id
+     * @param subscriptions the users subscriptions
+     */
+    private void captureQueryOptions(UUID uniqueId, List<Subscription> subscriptions) {
+        // if the player can't be looked up, keep the options they were last computed with
+        QueryOptions queryOptions = this.provider.getBackgroundQueryOptions(uniqueId);
+        if (queryOptions != null) {
+            for (Subscription subscription : subscriptions) {
+                subscription.queryOptions = queryOptions;
+            }
+        }
+    }
+
+    /**
+     * Schedules a user's subscriptions to be recomputed, unless they already are.
+     *
+     * @param uniqueId the users unique id
+     */
+    private void schedule(UUID uniqueId) {
+        List<Subscription> subscriptions = this.subscriptions.get(uniqueId);
+        if (subscriptions == null) {
+            return;
+        }
+
+        // if an update is already scheduled, it'll use the latest query options
+        captureQueryOptions(uniqueId, subscriptions);
+        if (!this.pending.add(uniqueId)) {
+            return;
+        }
+        execute(() -> {
+            // remove before computing, so changes made while computing schedule another update
+            this.pending.remove(uniqueId);
+            update(this.subscriptions.get(uniqueId));
+        });
+    }
+
+    /**
+     * Schedules every subscription to be recomputed, unless they already are.
+     */
+    private void scheduleAll() {
+        if (this.subscriptions.isEmpty()) {
+            return;
+        }
+
+        this.subscriptions.forEach(this::captureQueryOptions);
+        if (!this.pendingAll.compareAndSet(false, true)) {
+            return;
+        }
+        execute(() -> {
+            this.pendingAll.set(false);
+            updateAll();
+        });
+    }
+
+    /**
+     * Schedules the subscriptions to placeholders which aren't cached to be
+     * recomputed, unless they already are.
+     */
+    private void scheduleUncached() {
+        if (this.uncached.isEmpty() || !this.pendingUncached.compareAndSet(false, true)) {
+            return;
+        }
+        execute(() -> {
+            this.pendingUncached.set(false);
+            update(this.uncached);
+        });
+    }
+
+    private void execute(Runnable task) {
+        if (this.closed) {
+            return;
+        }
+
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // the queue is full - rather than lose the update, make it here
+            if (!this.closed) {
+                task.run();
+            }
+        }
+    }
+
+    @Override
+    public void onUserDataChange(UUID uniqueId) {
+        schedule(uniqueId);
+    }
+
+    @Override
+    public void onGroupDataChange() {
+        scheduleAll();
+    }
+
+    @Override
+    public void onTrackDataChange() {
+        scheduleAll();
+    }
+
+    @Override
+    public void onContextChange(UUID uniqueId) {
+        if (uniqueId == null) {
+            scheduleAll();
+        } else {
+            schedule(uniqueId);
+        }
+    }
+
+    @Override
+    public void onPlayerJoin(UUID uniqueId) {
+        scheduleUncached();
+    }
+
+    @Override
+    public void onPlayerQuit(UUID uniqueId) {
+        scheduleUncached();
+    }
+
+    @Override
+    public void onUserUnload(UUID uniqueId) {
+        List<Subscription> subscriptions = this.subscriptions.remove(uniqueId);
+        if (subscriptions != null) {
+            for (Subscription subscription : subscriptions) {
+                subscription.active = false;
+                this.uncached.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * Ends all subscriptions.
+     */
+    public void close() {
+        this.closed = true;
+        this.executor.shutdownNow();
+        for (List<Subscription> subscriptions : this.subscriptions.values()) {
+            for (Subscription subscription : subscriptions) {
+                subscription.active = false;
+            }
+        }
+        this.subscriptions.clear();
+        this.uncached.clear();
+    }
+
+    private final class Subscription implements PlaceholderSubscription {
+        private final UUID uniqueId;
+        private final PlaceholderHandle handle;
+        private final PlaceholderListener listener;
+
+        /**
+         * The query options to recompute the value with, obtained when the change was posted
+         */
+        private volatile QueryOptions queryOptions;
+
+        private volatile String value;
+        private volatile boolean active = true;
+
+        Subscription(UUID uniqueId, PlaceholderHandle handle, PlaceholderListener listener, QueryOptions queryOptions) {
+            this.uniqueId = uniqueId;
+            this.handle = handle;
+            this.listener = listener;
+            this.queryOptions = queryOptions;
+        }
+
+        /**
+         * Recomputes the value, and notifies the listener if it has changed.
+         */
+        void update() {
+            // synchronized so that concurrent updates are delivered in order
+            synchronized (this) {
+                if (!this.active) {
+                    return;
+                }
+
+                String value = SubscriptionManager.this.provider.evaluate(this.handle, this.uniqueId, this.queryOptions);
+                if (Objects.equals(value, this.value)) {
+                    return;
+                }
+                this.value = value;
+                this.listener.onChange(this, value);
+            }
+        }
+
+        @Override
+        public UUID getUniqueId() {
+            return this.uniqueId;
+        }
+
+        @Override
+        public String getPlaceholder() {
+            return this.handle.getPlaceholder();
+        }
+
+        @Override
+        public String getValue() {
+            return this.value;
+        }
+
+        @Override
+        public boolean isActive() {
+            return this.active;
+        }
+
+        @Override
+        public void close() {
+            this.active = false;
+            remove(this);
+        }
+
+        @Override
+        public String toString() {
+            return "PlaceholderSubscription(" + this.uniqueId + ", " + this.handle.getPlaceholder() + ")";
+        }
+    }
+}
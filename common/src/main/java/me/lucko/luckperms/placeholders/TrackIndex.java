@@ -0,0 +1,157 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.track.Track;
+import net.luckperms.api.track.TrackManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Indexes the groups on each track, so the track placeholders can use hash
+ * lookups instead of scanning and copying the track's group list.
+ *
+ * <p>Tracks are indexed lazily, and the index is dropped whenever a track
+ * is created, deleted or modified.</p>
+ */
+final class TrackIndex implements DataChangeListener {
+    private final TrackManager trackManager;
+    private final Map<String, Optional<IndexedTrack>> tracks = new ConcurrentHashMap<>();
+
+    TrackIndex(TrackManager trackManager) {
+        this.trackManager = trackManager;
+    }
+
+    /**
+     * Gets the indexed track with the given name.
+     *
+     * @param name the track name
+     * @return the track, or null if it doesn't exist
+     */
+    public IndexedTrack getTrack(String name) {
+        Optional<IndexedTrack> track = this.tracks.get(name);
+        if (track == null) {
+            track = this.tracks.computeIfAbsent(name, x -> Optional.ofNullable(this.trackManager.getTrack(x)).map(IndexedTrack::new));
+        }
+        return track.orElse(null);
+    }
+
+    @Override
+    public void onTrackDataChange() {
+        this.tracks.clear();
+    }
+
+    /**
+     * An immutable, indexed view of a {@link Track}.
+     */
+    static final class IndexedTrack {
+        private final List<String> groups;
+        private final List<String> reversedGroups;
+        private final Map<String, Integer> positions;
+
+        IndexedTrack(Track track) {
+            List<String> groups = new ArrayList<>(track.getGroups());
+            Map<String, Integer> positions = new HashMap<>(groups.size());
+            for (int i = 0; i < groups.size(); i++) {
+                positions.putIfAbsent(groups.get(i), i);
+            }
+
+            List<String> reversedGroups = new ArrayList<>(groups);
+            Collections.reverse(reversedGroups);
+
+            this.groups = Collections.unmodifiableList(groups);
+            this.reversedGroups = Collections.unmodifiableList(reversedGroups);
+            this.positions = positions;
+        }
+
+        /**
+         * Gets the groups on the track, in order.
+         *
+         * @return the groups
+         */
+        public List<String> getGroups() {
+            return this.groups;
+        }
+
+        /**
+         * Gets the groups on the track, in reverse order.
+         *
+         * @return the groups, reversed
+         */
+        public List<String> getReversedGroups() {
+            return this.reversedGroups;
+        }
+
+        public boolean containsGroup(String group) {
+            return this.positions.containsKey(group);
+        }
+
+        /**
+         * Gets the position of a group on the track.
+         *
+         * @param group the group
+         * @return the position, or -1 if the group isn't on the track
+         */
+        public int indexOf(String group) {
+            Integer position = this.positions.get(group);
+            return position == null ? -1 : position;
+        }
+
+        /**
+         * Gets the group after the given group on the track.
+         *
+         * @param group the group
+         * @return the next group, or null if there isn't one
+         */
+        public String getNext(String group) {
+            int position = indexOf(group);
+            if (position == -1 || position == this.groups.size() - 1) {
+                return null;
+            }
+            return this.groups.get(position + 1);
+        }
+
+        /**
+         * Gets the group before the given group on the track.
+         *
+         * @param group the group
+         * @return the previous group, or null if there isn't one
+         */
+        public String getPrevious(String group) {
+            int position = indexOf(group);
+            if (position <= 0) {
+                return null;
+            }
+            return this.groups.get(position - 1);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.luckperms.api.model.user.User;
+import net.luckperms.api.query.QueryOptions;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches data derived from users, which is expensive to compute on every request.
+ *
+ * <p>Derived data is dropped whenever the LuckPerms data it was computed from
+ * changes, and when the user is unloaded.</p>
+ */
+final class UserDataCache implements DataChangeListener {
+
+    /**
+     * The maximum number of query options to hold snapshots for, per user.
+     */
+    private static final int MAX_SNAPSHOTS_PER_USER = 16;
+
+    private final GroupIndex groups;
+    private final Map<UUID, CachedUser> users = new ConcurrentHashMap<>();
+
+    UserDataCache(GroupIndex groups) {
+        this.groups = groups;
+    }
+
+    /**
+     * Gets a snapshot of the groups the user is a member of.
+     *
+     * @param user the user
+     * @param queryOptions the query options
+     * @return the snapshot
+     */
+    public GroupSnapshot getGroups(User user, QueryOptions queryOptions) {
+        // obtain the cached user before computing, so a concurrent invalidation
+        // causes the (possibly stale) result to be written to a discarded instance
+        CachedUser cached = this.users.computeIfAbsent(user.getUniqueId(), x -> new CachedUser());
+
+        GroupSnapshot snapshot = cached.groups.get(queryOptions);
+        if (snapshot == null) {
+            if (cached.groups.size() >= MAX_SNAPSHOTS_PER_USER) {
+                cached.groups.clear();
+            }
+            snapshot = cached.groups.computeIfAbsent(queryOptions, x -> GroupSnapshot.build(user, x, this.groups));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets an index of the user's own nodes.
+     *
+     * @param user the user
+     * @return the index
+     */
+    public NodeIndex getNodes(User user) {
+        CachedUser cached = this.users.computeIfAbsent(user.getUniqueId(), x -> new CachedUser());
+
+        NodeIndex nodes = cached.nodes;
+        if (nodes == null) {
+            // racing threads may both build the index, but they'll build the same thing
+            nodes = NodeIndex.build(user);
+            cached.nodes = nodes;
+        }
+        return nodes;
+    }
+
+    @Override
+    public void onUserDataChange(UUID uniqueId) {
+        this.users.remove(uniqueId);
+    }
+
+    @Override
+    public void onGroupDataChange() {
+        this.users.clear();
+    }
+
+    @Override
+    public void onUserUnload(UUID uniqueId) {
+        this.users.remove(uniqueId);
+    }
+
+    /**
+     * The derived data cached for a single user.
+     */
+    private static final class CachedUser {
+        private final Map<QueryOptions, GroupSnapshot> groups = new ConcurrentHashMap<>();
+        private volatile NodeIndex nodes;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * This file is part of LuckPerms, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.luckperms.placeholders;
+
+import net.minecraft.network.chat.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded, least-recently-used cache of parsed placeholder results.
+ *
+ * <p>Most placeholder results (prefixes, suffixes, group names...) come from a
+ * small set of strings shared between many players, so parsing each one once
+ * saves a lot of work. The cached components are shared, and must not be
+ * modified.</p>
+ *
+ * <p>The cache is split into segments by input, each with its own lock and its
+ * own share of the maximum size, so requests from different threads rarely
+ * contend. Eviction is least-recently-used within each segment.</p>
+ */
+final class ComponentCache {
+
+    /**
+     * The number of independently locked segments. Must be a power of two.
+     */
+    private static final int SEGMENTS = 16;
+
+    private final int maxSize;
+    private final Function<String, Component> parser;
+
+    /**
+     * Cached components, split into segments. Each segment is in access order, and guarded by itself
+     */
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ComponentCache(int maxSize, Function<String, Component> parser) {
+        this.maxSize = maxSize;
+        this.parser = parser;
+        int segmentSize = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    private Segment segment(String input) {
+        int hash = input.hashCode();
+        return this.segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Gets the parsed component for a placeholder result.
+     *
+     * @param input the placeholder result
+     * @return the component
+     */
+    public Component get(String input) {
+        Segment segment = segment(input);
+        synchronized (segment) {
+            Component component = segment.get(input);
+            if (component != null) {
+                this.hits.increment();
+                return component;
+            }
+        }
+        this.misses.increment();
+
+        // parse outside the lock - racing threads may both parse the same input,
+        // but will produce the same result
+        Component component = this.parser.apply(input);
+        synchronized (segment) {
+            segment.put(input, component);
+        }
+        return component;
+    }
+
+    public void clear() {
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Gets a summary of the cache size and hit rate.
+     *
+     * @return the stats
+     */
+    public String getStats() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        long hits = this.hits.sum();
+        long misses = this.misses.sum();
+        long requests = hits + misses;
+        return String.format("size=%d/%d, hits=%d, misses=%d, evictions=%d, hitRate=%.1f%%",
+                size, this.maxSize, hits, misses, this.evictions.sum(),
+                requests == 0 ? 0 : hits * 100.0 / requests);
+    }
+
+    @Override
+    public String toString() {
+        return "ComponentCache(" + getStats() + ")";
+    }
+
+    /**
+     * A segment of the cache, holding components in access order
+     */
+    private final class Segment extends LinkedHashMap<String, Component> {
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Component> eldest) {
+            if (size() > this.maxSize) {
+                ComponentCache.this.evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
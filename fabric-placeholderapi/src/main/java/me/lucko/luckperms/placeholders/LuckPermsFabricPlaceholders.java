@@ -33,27 +33,60 @@ import eu.pb4.placeholders.api.node.TextNode;
 import eu.pb4.placeholders.api.parsers.LegacyFormattingParser;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.luckperms.api.LuckPerms;
 import net.luckperms.api.LuckPermsProvider;
-import net.luckperms.api.cacheddata.CachedDataManager;
-import net.luckperms.api.model.user.User;
-import net.luckperms.api.query.QueryOptions;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.Identifier;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
 
 import java.util.Map;
+import java.util.UUID;
 
 public class LuckPermsFabricPlaceholders implements ModInitializer, PlaceholderPlatform {
+    /**
+     * The maximum number of parsed placeholder results to cache
+     */
+    private static final int MAX_CACHED_COMPONENTS = 1024;
+
+    private final ComponentCache components = new ComponentCache(MAX_CACHED_COMPONENTS, LuckPermsFabricPlaceholders::parseText);
+
+    private MinecraftServer server;
+    private LPPlaceholderProvider provider;
 
     @Override
     public void onInitialize() {
-        ServerLifecycleEvents.SERVER_STARTED.register(server -> registerPlaceholders());
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> {
+            this.server = server;
+            registerPlaceholders();
+        });
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            if (this.provider != null) {
+                this.provider.close();
+                this.provider = null;
+            }
+            this.server = null;
+            this.components.clear();
+        });
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
+            LPPlaceholderProvider provider = this.provider;
+            if (provider != null) {
+                provider.onPlayerJoin(handler.getPlayer().getUUID());
+            }
+        });
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> {
+            LPPlaceholderProvider provider = this.provider;
+            if (provider != null) {
+                provider.onPlayerQuit(handler.getPlayer().getUUID());
+            }
+        });
     }
 
     private void registerPlaceholders() {
         LuckPerms luckPerms = LuckPermsProvider.get();
-        PlaceholderProvider provider = new LPPlaceholderProvider(this, luckPerms);
+        LPPlaceholderProvider provider = new LPPlaceholderProvider(this, luckPerms);
+        this.provider = provider;
         Map<String, Placeholder> placeholders = provider.getPlaceholders();
 
         placeholders.forEach((s, placeholder) -> {
@@ -65,38 +98,46 @@ public class LuckPermsFabricPlaceholders implements ModInitializer, PlaceholderP
                 }
 
                 ServerPlayer player = ctx.player();
-                User user = luckPerms.getUserManager().getUser(player.getUUID());
-                if (user == null) {
+                if (!luckPerms.getUserManager().isLoaded(player.getUUID())) {
                     return PlaceholderResult.invalid("No user!");
                 }
 
-                CachedDataManager data = user.getCachedData();
-                QueryOptions queryOptions = luckPerms.getContextManager().getQueryOptions(player);
-
-                Object result = null;
-                if (placeholder instanceof DynamicPlaceholder) {
-                    DynamicPlaceholder dp = (DynamicPlaceholder) placeholder;
-                    if (arg == null && placeholders.containsKey(trimmed)) {
-                        // Didn't use optional param
-                        result = ((StaticPlaceholder) placeholders.get(trimmed)).handle(player, user, data, queryOptions);
-                    } else {
-                        result = dp.handle(player, user, data, queryOptions, arg);
-                    }
-                } else if (placeholder instanceof StaticPlaceholder) {
-                    StaticPlaceholder sp = (StaticPlaceholder) placeholder;
-                    result = sp.handle(player, user, data, queryOptions);
+                String request;
+                if (placeholder instanceof DynamicPlaceholder && arg != null) {
+                    request = s + arg;
+                } else {
+                    // Static placeholder, or a dynamic placeholder used without the optional param
+                    request = placeholder instanceof DynamicPlaceholder ? trimmed : s;
                 }
 
-                if (result instanceof Boolean) {
-                    result = this.formatBoolean((boolean) result);
-                }
+                String result = provider.onPlaceholderRequest(player, player.getUUID(), request);
 
-                return result == null ? PlaceholderResult.invalid() : PlaceholderResult.value(parseText(result.toString()));
+                return result == null ? PlaceholderResult.invalid() : PlaceholderResult.value(this.components.get(result));
             });
         });
     }
 
-    private Component parseText(String input) {
+    @Override
+    public UUID getUniqueId(Object player) {
+        return player instanceof ServerPlayer ? ((ServerPlayer) player).getUUID() : null;
+    }
+
+    @Override
+    public Object getPlayer(UUID uniqueId) {
+        MinecraftServer server = this.server;
+        return server == null ? null : server.getPlayerList().getPlayer(uniqueId);
+    }
+
+    /**
+     * Gets stats for the cache of parsed placeholder results.
+     *
+     * @return the stats
+     */
+    public String getComponentCacheStats() {
+        return this.components.getStats();
+    }
+
+    private static Component parseText(String input) {
         return TextNode.asSingle(LegacyFormattingParser.ALL.parseNodes(TextParserUtils.formatNodes(input))).toText(ParserContext.of(), true);
     }
 }
@@ -27,12 +27,16 @@ package me.lucko.luckperms.placeholders;
 
 import com.hypixel.hytale.common.plugin.PluginIdentifier;
 import com.hypixel.hytale.server.core.HytaleServer;
+import com.hypixel.hytale.server.core.event.events.player.PlayerConnectEvent;
+import com.hypixel.hytale.server.core.event.events.player.PlayerDisconnectEvent;
 import at.helpch.placeholderapi.PlaceholderAPIPlugin;
 import at.helpch.placeholderapi.expansion.PlaceholderExpansion;
 import com.hypixel.hytale.server.core.universe.PlayerRef;
 import net.luckperms.api.LuckPerms;
 import net.luckperms.api.LuckPermsProvider;
 
+import java.util.UUID;
+
 /**
  * PlaceholderAPI Expansion for LuckPerms, implemented using the LuckPerms API.
  */
@@ -43,6 +47,7 @@ public class LuckPermsExpansion extends PlaceholderExpansion implements Placehol
     private static final String VERSION = "5.5-R1";
 
     private LPPlaceholderProvider provider;
+    private boolean listening = false;
 
     @Override
     public boolean canRegister() {
@@ -58,10 +63,48 @@ public class LuckPermsExpansion extends PlaceholderExpansion implements Placehol
 //        LuckPerms luckPerms = Bukkit.getServicesManager().getRegistration(LuckPerms.class).getProvider();
         final LuckPerms luckPerms = LuckPermsProvider.get();
 
+        // close the provider from a previous registration, if there is one
+        closeProvider();
         this.provider = new LPPlaceholderProvider(this, luckPerms);
+        registerListeners();
         return super.register();
     }
 
+    // the event bus outlives the expansion, so only listen once - the
+    // handlers pass the events on to whichever provider is current
+    private void registerListeners() {
+        if (this.listening) {
+            return;
+        }
+        this.listening = true;
+
+        HytaleServer.get().getEventBus().register(PlayerConnectEvent.class, event -> {
+            LPPlaceholderProvider provider = this.provider;
+            if (provider != null) {
+                provider.onPlayerJoin(event.getPlayerRef().getUuid());
+            }
+        });
+        HytaleServer.get().getEventBus().register(PlayerDisconnectEvent.class, event -> {
+            LPPlaceholderProvider provider = this.provider;
+            if (provider != null) {
+                provider.onPlayerQuit(event.getPlayerRef().getUuid());
+            }
+        });
+    }
+
+    @Override
+    public boolean unregister() {
+        closeProvider();
+        return super.unregister();
+    }
+
+    private void closeProvider() {
+        if (this.provider != null) {
+            this.provider.close();
+            this.provider = null;
+        }
+    }
+
     @Override
     public String onPlaceholderRequest(PlayerRef player, String identifier) {
         if (player == null || this.provider == null) {
@@ -76,6 +119,11 @@ public class LuckPermsExpansion extends PlaceholderExpansion implements Placehol
         return b ? PlaceholderAPIPlugin.instance().configManager().config().booleanValue().trueValue() : PlaceholderAPIPlugin.instance().configManager().config().booleanValue().falseValue();
     }
 
+    @Override
+    public UUID getUniqueId(Object player) {
+        return player instanceof PlayerRef ? ((PlayerRef) player).getUuid() : null;
+    }
+
     @Override
     public String getIdentifier() {
         return IDENTIFIER;